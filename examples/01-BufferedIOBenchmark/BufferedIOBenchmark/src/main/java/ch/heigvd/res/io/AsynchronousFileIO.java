@@ -0,0 +1,171 @@
+package ch.heigvd.res.io;
+
+import ch.heigvd.res.io.util.MeasuresManager;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class writes and reads a file through an AsynchronousFileChannel, keeping a
+ * fixed number of operations in flight (the queue depth). Every in-flight operation
+ * owns one buffer of a pool allocated once: when an operation completes, its
+ * completion handler claims the next block of the file and issues the next
+ * operation with the same buffer.
+ * 
+ * Note that on Linux (and other Unix systems), the JDK emulates asynchronous file
+ * IO: the operations are blocking positional reads and writes, executed by the
+ * thread pool of the channel. The channel must thus be opened with a pool of at
+ * least queueDepth threads, otherwise fewer operations are really in flight.
+ * 
+ * @author Olivier Liechti
+ */
+class AsynchronousFileIO {
+
+	private final AsynchronousFileChannel channel;
+	private final boolean writing;
+	private final long fileSize;
+	private final int blockSize;
+	private final MeasuresManager.Samples samples;
+
+	private final AtomicLong nextPosition = new AtomicLong(0);
+	private final AtomicLong totalBytes = new AtomicLong(0);
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final CountDownLatch done;
+	private final Slot[] slots;
+
+	private AsynchronousFileIO(AsynchronousFileChannel channel, boolean writing, long fileSize, int blockSize, int queueDepth, MeasuresManager.Samples samples) {
+		this.channel = channel;
+		this.writing = writing;
+		this.fileSize = fileSize;
+		this.blockSize = blockSize;
+		this.samples = samples;
+		this.done = new CountDownLatch(queueDepth);
+		this.slots = new Slot[queueDepth];
+		for (int i = 0; i < queueDepth; i++) {
+			slots[i] = new Slot(ByteBuffer.allocateDirect(blockSize));
+		}
+	}
+
+	/**
+	 * Writes numberOfBytesToWrite bytes in the file, with queueDepth operations in flight.
+	 */
+	static long write(AsynchronousFileChannel channel, long numberOfBytesToWrite, int blockSize, int queueDepth, MeasuresManager.Samples samples) throws IOException {
+		return new AsynchronousFileIO(channel, true, numberOfBytesToWrite, blockSize, queueDepth, samples).run();
+	}
+
+	/**
+	 * Reads the whole file, with queueDepth operations in flight, and returns the number of bytes read.
+	 */
+	static long read(AsynchronousFileChannel channel, int blockSize, int queueDepth, MeasuresManager.Samples samples) throws IOException {
+		return new AsynchronousFileIO(channel, false, channel.size(), blockSize, queueDepth, samples).run();
+	}
+
+	private long run() throws IOException {
+		for (Slot slot : slots) {
+			try {
+				slot.next();
+			} catch (Throwable t) {
+				slot.failed(t, null);
+			}
+		}
+		try {
+			done.await();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the asynchronous operations", ex);
+		}
+		if (failure.get() != null) {
+			throw new IOException("An asynchronous operation has failed", failure.get());
+		}
+		return totalBytes.get();
+	}
+
+	/**
+	 * One in-flight operation and its buffer. The completion handler is called by a thread of
+	 * the channel's pool, and issues the next operation.
+	 */
+	private class Slot implements CompletionHandler<Integer, Void> {
+
+		private final ByteBuffer buffer;
+		private long position;
+		private long startTime;
+
+		Slot(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		/**
+		 * Claims the next block of the file and issues its first operation.
+		 */
+		void next() {
+			long blockPosition = nextPosition.getAndAdd(blockSize);
+			if (blockPosition >= fileSize || failure.get() != null) {
+				done.countDown();
+				return;
+			}
+			position = blockPosition;
+			int length = (int) Math.min(blockSize, fileSize - blockPosition);
+			buffer.clear();
+			buffer.limit(length);
+			if (writing) {
+				// the last block is a partial block, which we fill with 'B' like the other strategies
+				byte value = (length == blockSize) ? (byte) 'b' : (byte) 'B';
+				for (int j = 0; j < length; j++) {
+					buffer.put(j, value);
+				}
+			}
+			startTime = System.nanoTime();
+			issue();
+		}
+
+		/**
+		 * Issues an operation for the remaining bytes of the buffer (an operation may process
+		 * less bytes than requested).
+		 */
+		private void issue() {
+			if (writing) {
+				channel.write(buffer, position + buffer.position(), null, this);
+			} else {
+				channel.read(buffer, position + buffer.position(), null, this);
+			}
+		}
+
+		@Override
+		public void completed(Integer result, Void attachment) {
+			// an exception thrown here would be lost in the pool of the channel, and run() would wait forever
+			try {
+				if (buffer.hasRemaining()) {
+					if (result <= 0) {
+						failed(new IOException((writing ? "Short write" : "Unexpected end of file") + " at position "
+							+ (position + buffer.position()) + " (" + buffer.remaining() + " bytes not transferred)"), null);
+						return;
+					}
+					issue();
+					return;
+				}
+				if (samples != null) {
+					// the handlers are called by several threads and MeasuresManager is not thread-safe
+					synchronized (samples) {
+						samples.record(System.nanoTime() - startTime, buffer.position());
+					}
+				}
+				totalBytes.addAndGet(buffer.position());
+				next();
+			} catch (Throwable t) {
+				failed(t, null);
+			}
+		}
+
+		@Override
+		public void failed(Throwable exc, Void attachment) {
+			failure.compareAndSet(null, exc);
+			done.countDown();
+		}
+
+	}
+
+}
@@ -0,0 +1,194 @@
+package ch.heigvd.res.io;
+
+import ch.heigvd.res.io.BufferedIOBenchmark.IOStrategy;
+import ch.heigvd.res.io.util.Timer;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This program looks for the block sizes and the stream buffer sizes that give the
+ * best throughput on the device where a given directory is stored, and writes them
+ * in a configuration file (a properties file).
+ * 
+ * Throughput grows with the size of the IOs, until it reaches a plateau: beyond the
+ * "knee" of the curve, larger blocks only consume more memory. The tuner looks for
+ * this knee with a geometric search. It first measures sizes growing by a factor of
+ * 4, from MIN_SIZE to MAX_SIZE. The knee is the smallest size that reaches
+ * KNEE_THRESHOLD of the best throughput. It then measures sizes around the knee
+ * with a factor of 2, then with a factor of sqrt(2), and picks the knee again.
+ * 
+ * Two things are tuned, for writes and for reads: the size of the blocks passed to
+ * an unbuffered stream (i.e. the size of the system calls), and the size of the buffer
+ * of BufferedOutputStream and BufferedInputStream when the application writes and
+ * reads small blocks (APPLICATION_BLOCK_SIZE bytes).
+ * 
+ * Note that the files are read right after being written, hence mostly from the page
+ * cache. To tune the reads of the device itself, use files larger than the RAM.
+ * 
+ * @author Olivier Liechti
+ */
+public class BlockSizeTuner {
+
+	static final Logger LOG = Logger.getLogger(BlockSizeTuner.class.getName());
+
+	final static int MIN_SIZE = 512;
+	final static int MAX_SIZE = 16 * 1024 * 1024;
+	final static double KNEE_THRESHOLD = 0.95;
+	final static int APPLICATION_BLOCK_SIZE = 128;
+	final static int NUMBER_OF_REPETITIONS = 3;
+	final static long DEFAULT_NUMBER_OF_BYTES = 1024 * 1024 * 256;
+	final static String DEFAULT_CONFIGURATION_FILENAME = "io-tuning.properties";
+
+	private final File testFile;
+	private final long numberOfBytes;
+
+	public BlockSizeTuner(File targetDirectory, long numberOfBytes) {
+		this.testFile = new File(targetDirectory, "tuning-data.bin");
+		this.numberOfBytes = numberOfBytes;
+	}
+
+	/**
+	 * What is measured for a given size: a block size or a stream buffer size, for writes or for reads
+	 */
+	private enum Dimension {
+		WRITE_BLOCK_SIZE("write.blockSize"),
+		READ_BLOCK_SIZE("read.blockSize"),
+		WRITE_STREAM_BUFFER_SIZE("write.streamBufferSize"),
+		READ_STREAM_BUFFER_SIZE("read.streamBufferSize");
+
+		private final String propertyName;
+
+		private Dimension(String propertyName) {
+			this.propertyName = propertyName;
+		}
+	}
+
+	/**
+	 * Tunes all dimensions and writes the recommended configuration in the properties file.
+	 */
+	public void tune(File configurationFile) throws IOException {
+		Properties configuration = new Properties();
+		try {
+			// the file read by the read benchmarks must exist before we tune them
+			new BufferedIOBenchmark(new Timer()).writeTestFile(testFile, IOStrategy.BlockByBlockWithoutBufferedStream, numberOfBytes, 65536);
+			for (Dimension dimension : Dimension.values()) {
+				int knee = findKnee(dimension);
+				configuration.setProperty(dimension.propertyName, Integer.toString(knee));
+				LOG.log(Level.INFO, "  > Recommended {0}: {1} bytes", new Object[]{dimension.propertyName, knee});
+			}
+		} finally {
+			testFile.delete();
+		}
+		try (Writer writer = new FileWriter(configurationFile)) {
+			configuration.store(writer, "Measured by BlockSizeTuner on " + new Date() + " in " + testFile.getAbsoluteFile().getParent()
+				+ " (" + numberOfBytes + " bytes per run, knee at " + (int) (KNEE_THRESHOLD * 100) + "% of the best throughput)");
+		}
+	}
+
+	/**
+	 * Runs the geometric search for one dimension and returns the recommended size.
+	 */
+	private int findKnee(Dimension dimension) throws IOException {
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "*** TUNING {0}", dimension.propertyName);
+		Map<Integer, Double> throughputs = new TreeMap<>();
+		for (int size = MIN_SIZE; size <= MAX_SIZE; size *= 4) {
+			throughputs.put(size, measure(dimension, size));
+		}
+		int knee = knee(throughputs);
+
+		// let's refine around the knee, first with a factor of 2, then with a factor of sqrt(2)
+		for (double factor : new double[]{2, Math.sqrt(2)}) {
+			for (double size = knee / (factor * factor); size <= knee * factor * factor; size *= factor) {
+				int roundedSize = roundSize(size);
+				if (roundedSize >= MIN_SIZE && roundedSize <= MAX_SIZE && !throughputs.containsKey(roundedSize)) {
+					throughputs.put(roundedSize, measure(dimension, roundedSize));
+				}
+			}
+			knee = knee(throughputs);
+		}
+		return knee;
+	}
+
+	/**
+	 * Returns the smallest size whose throughput reaches KNEE_THRESHOLD of the best throughput.
+	 */
+	private static int knee(Map<Integer, Double> throughputs) {
+		double best = 0;
+		for (double throughput : throughputs.values()) {
+			best = Math.max(best, throughput);
+		}
+		for (Map.Entry<Integer, Double> entry : throughputs.entrySet()) {
+			if (entry.getValue() >= KNEE_THRESHOLD * best) {
+				return entry.getKey();
+			}
+		}
+		throw new IllegalStateException("No throughput has been measured");
+	}
+
+	/**
+	 * Sizes are rounded to a multiple of 512 bytes, which is the size of a disk sector.
+	 */
+	private static int roundSize(double size) {
+		return (int) Math.max(MIN_SIZE, Math.round(size / MIN_SIZE) * MIN_SIZE);
+	}
+
+	/**
+	 * Returns the median throughput (in MB/s) of NUMBER_OF_REPETITIONS runs for a given size.
+	 */
+	private double measure(Dimension dimension, int size) throws IOException {
+		Timer timer = new Timer();
+		BufferedIOBenchmark benchmark = new BufferedIOBenchmark(timer);
+		double[] throughputs = new double[NUMBER_OF_REPETITIONS];
+		for (int i = 0; i < NUMBER_OF_REPETITIONS; i++) {
+			timer.start();
+			switch (dimension) {
+				case WRITE_BLOCK_SIZE:
+					benchmark.writeTestFile(testFile, IOStrategy.BlockByBlockWithoutBufferedStream, numberOfBytes, size);
+					break;
+				case READ_BLOCK_SIZE:
+					benchmark.readTestFile(testFile, IOStrategy.BlockByBlockWithoutBufferedStream, size);
+					break;
+				case WRITE_STREAM_BUFFER_SIZE:
+					benchmark.setStreamBufferSize(size);
+					benchmark.writeTestFile(testFile, IOStrategy.BlockByBlockWithBufferedStream, numberOfBytes, APPLICATION_BLOCK_SIZE);
+					break;
+				case READ_STREAM_BUFFER_SIZE:
+					benchmark.setStreamBufferSize(size);
+					benchmark.readTestFile(testFile, IOStrategy.BlockByBlockWithBufferedStream, APPLICATION_BLOCK_SIZE);
+					break;
+			}
+			throughputs[i] = (numberOfBytes / (1024.0 * 1024.0)) / (timer.takeSection().getElapsedTimeInNs() / 1e9);
+		}
+		Arrays.sort(throughputs);
+		double median = throughputs[NUMBER_OF_REPETITIONS / 2];
+		LOG.log(Level.INFO, String.format(Locale.ROOT, "%10d bytes: %9.1f MB/s", size, median));
+		return median;
+	}
+
+	/**
+	 * @param args [target directory] [number of bytes per run] [configuration file]
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s %n");
+
+		File targetDirectory = new File(args.length > 0 ? args[0] : ".");
+		long numberOfBytes = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_NUMBER_OF_BYTES;
+		File configurationFile = new File(args.length > 2 ? args[2] : DEFAULT_CONFIGURATION_FILENAME);
+
+		new BlockSizeTuner(targetDirectory, numberOfBytes).tune(configurationFile);
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "The recommended configuration has been written in {0}", configurationFile.getAbsolutePath());
+	}
+
+}
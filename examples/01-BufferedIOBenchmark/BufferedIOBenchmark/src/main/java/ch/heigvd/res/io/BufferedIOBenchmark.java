@@ -1,13 +1,28 @@
 package ch.heigvd.res.io;
 
+import ch.heigvd.res.io.util.MeasureStatistics;
+import ch.heigvd.res.io.util.MeasuresManager;
+import ch.heigvd.res.io.util.TimedSection;
 import ch.heigvd.res.io.util.Timer;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,6 +35,11 @@ import java.util.logging.Logger;
  * bytes to the local file system. Different methods are compared: processing bytes
  * one by one, processing bytes in blocks, using buffered streams or not.
  * 
+ * The main method times every configuration only once, so its results are noisy
+ * and include the JIT warm-up. For numbers that can be trusted, build the project
+ * with "mvn package" and run the JMH benchmarks of the benchmarks package with
+ * "java -jar target/benchmarks.jar".
+ * 
  * @author Olivier Liechti
  */
 public class BufferedIOBenchmark {
@@ -28,58 +48,187 @@ public class BufferedIOBenchmark {
 	private final Timer timer;
 
 	/**
-	 * This enum is used to describe the 4 different strategies for doing the IOs
+	 * This enum is used to describe the different strategies for doing the IOs. Two strategies use
+	 * a FileChannel instead of streams. They reuse a single ByteBuffer for the whole file, either on
+	 * the heap (the JDK then copies every block to/from a temporary native buffer before the system
+	 * call) or in native memory (direct buffer, no copy). Another strategy maps the file in memory,
+	 * one window at a time, and copies blocks to/from the mapped memory (no system call per block).
+	 * The last strategy uses an AsynchronousFileChannel and keeps several operations in flight.
 	 */
 	public enum IOStrategy {
 		ByteByByteWithoutBufferedStream,
 		ByteByByteWithBufferedStream,
 		BlockByBlockWithoutBufferedStream,
-		BlockByBlockWithBufferedStream
+		BlockByBlockWithBufferedStream,
+		BlockByBlockWithFileChannelAndHeapBuffer,
+		BlockByBlockWithFileChannelAndDirectBuffer,
+		BlockByBlockWithMemoryMappedFile,
+		BlockByBlockWithAsynchronousFileChannel
+	};
+
+	/**
+	 * This enum is used to describe when the written data is forced to the storage device, so that
+	 * it survives a crash. Without any sync (NONE), a write returns as soon as the data has been
+	 * copied in the page cache of the OS. With AT_CLOSE, PER_BLOCK, EVERY_N_BYTES and EVERY_N_MILLIS
+	 * (group commit), FileChannel.force is called at the given moments, and once more before closing
+	 * the file. With OPEN_SYNC and OPEN_DSYNC, the file is opened with the SYNC or DSYNC option, so
+	 * that every write is synchronous.
+	 */
+	public enum SyncPolicy {
+		NONE,
+		AT_CLOSE,
+		PER_BLOCK,
+		EVERY_N_BYTES,
+		EVERY_N_MILLIS,
+		OPEN_SYNC,
+		OPEN_DSYNC
 	};
 
 	final static String FILENAME_PREFIX = "test-data"; // we will write and read test files at this location
-	final static long NUMBER_OF_BYTES_TO_WRITE = 1024 * 1024 * 10; // we will write and read 10 MB files
+	final static long NUMBER_OF_BYTES_TO_WRITE = 1024 * 1024 * 10; // by default, we will write and read 10 MB files
+	final static String MEASURES_FILENAME = "measures"; // the statistics of the operations are exported in measures.csv and measures.json
+	final static int DEFAULT_STREAM_BUFFER_SIZE = 8192; // the default size of the buffer of BufferedInputStream and BufferedOutputStream
+	final static int DEFAULT_QUEUE_DEPTH = 8; // the number of operations in flight with an asynchronous file channel
+	final static long DEFAULT_MAPPING_WINDOW_SIZE = 1024 * 1024 * 64; // memory mapped files are processed in 64 MB windows
+
+	private long mappingWindowSize = DEFAULT_MAPPING_WINDOW_SIZE;
+	private MeasuresManager measuresManager = null;
+	private int streamBufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+	private int queueDepth = DEFAULT_QUEUE_DEPTH;
 
 	public BufferedIOBenchmark(Timer timer) {
 		this.timer = timer;
 	}
 
+	public long getMappingWindowSize() {
+		return mappingWindowSize;
+	}
+
+	/**
+	 * Sets the size of the regions mapped in memory by the BlockByBlockWithMemoryMappedFile strategy
+	 * (at most Integer.MAX_VALUE bytes).
+	 */
+	public void setMappingWindowSize(long mappingWindowSize) {
+		this.mappingWindowSize = mappingWindowSize;
+	}
+
+	public int getStreamBufferSize() {
+		return streamBufferSize;
+	}
+
+	/**
+	 * Sets the size of the buffer of the BufferedOutputStream and BufferedInputStream used by the
+	 * strategies with buffered streams (8192 bytes by default, like in the JDK).
+	 */
+	public void setStreamBufferSize(int streamBufferSize) {
+		this.streamBufferSize = streamBufferSize;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * Sets the number of operations kept in flight by the BlockByBlockWithAsynchronousFileChannel strategy.
+	 */
+	public void setQueueDepth(int queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	public MeasuresManager getMeasuresManager() {
+		return measuresManager;
+	}
+
+	/**
+	 * When a MeasuresManager is set, the duration of every single read or write operation is recorded in it
+	 * (operation types such as "WRITE BlockByBlockWithBufferedStream 500"). When it is null (the default),
+	 * the operations are not timed at all.
+	 */
+	public void setMeasuresManager(MeasuresManager measuresManager) {
+		this.measuresManager = measuresManager;
+	}
+
+	/**
+	 * Returns the samples in which the operations must be recorded, or null if they must not be recorded.
+	 */
+	private MeasuresManager.Samples getSamples(String operation, IOStrategy ioStrategy, int blockSize) {
+		if (measuresManager == null) {
+			return null;
+		}
+		return measuresManager.getSamples(operation + " " + ioStrategy + " " + blockSize);
+	}
+
 	/**
-	 * This method drives the generation of test data file, based on the parameters passed. The method opens a
-	 * FileOutputStream. Depending on the strategy, it wraps a BufferedOutputStream around it, or not. The method
-	 * then delegates the actual production of bytes to another method, passing it the stream.
+	 * This method drives the generation of test data file, based on the parameters passed. It measures the time
+	 * it takes to write the file and delegates the actual work to writeTestFile.
 	 */
 	private void produceTestData(IOStrategy ioStrategy, long numberOfBytesToWrite, int blockSize) {
 		LOG.log(Level.INFO, "Generating test data ({0}, {1} bytes, block size: {2}...", new Object[]{ioStrategy, numberOfBytesToWrite, blockSize});
 		timer.start();
 
+		try {
+			writeTestFile(new File(FILENAME_PREFIX + "-" + ioStrategy + "-" + blockSize + ".bin"), ioStrategy, numberOfBytesToWrite, blockSize);
+		} catch (IOException ex) {
+			LOG.log(Level.SEVERE, ex.getMessage(), ex);
+		}
+		logSection(timer.takeSection(), numberOfBytesToWrite);
+	}
+
+	/**
+	 * This method writes a test file. It opens a FileOutputStream. Depending on the strategy, it wraps a 
+	 * BufferedOutputStream around it, or not. The method then delegates the actual production of bytes to 
+	 * another method, passing it the stream. It does not log anything, so that it can also be called from
+	 * the JMH benchmarks.
+	 */
+	public void writeTestFile(File file, IOStrategy ioStrategy, long numberOfBytesToWrite, int blockSize) throws IOException {
+		MeasuresManager.Samples samples = getSamples("WRITE", ioStrategy, blockSize);
+
+		// If the strategy dictates to use a file channel, then we do not need any stream
+		if ((ioStrategy == IOStrategy.BlockByBlockWithFileChannelAndHeapBuffer) || (ioStrategy == IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer)) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				produceDataToChannel(channel, allocateBlock(ioStrategy, blockSize), numberOfBytesToWrite, samples);
+			}
+			return;
+		}
+
+		// If the strategy dictates to map the file in memory, then the channel must be readable and writable
+		if (ioStrategy == IOStrategy.BlockByBlockWithMemoryMappedFile) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				produceDataToMappedFile(new MappedFileWindow(channel, FileChannel.MapMode.READ_WRITE, numberOfBytesToWrite, mappingWindowSize), numberOfBytesToWrite, blockSize, samples);
+			}
+			return;
+		}
+
+		// If the strategy dictates to use an asynchronous file channel, then its thread pool must be able to run
+		// queueDepth operations at the same time
+		if (ioStrategy == IOStrategy.BlockByBlockWithAsynchronousFileChannel) {
+			ExecutorService executor = Executors.newFixedThreadPool(queueDepth);
+			try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(), EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), executor)) {
+				AsynchronousFileIO.write(channel, numberOfBytesToWrite, blockSize, queueDepth, samples);
+			} finally {
+				executor.shutdown();
+			}
+			return;
+		}
+
 		OutputStream os = null;
 		try {
 			// Let's connect our stream to a file data sink
-			os = new FileOutputStream(FILENAME_PREFIX + "-" + ioStrategy + "-" + blockSize + ".bin");
+			os = new FileOutputStream(file);
 
 			// If the strategy dictates to use a buffered stream, then let's wrap one around our file output stream
 			if ((ioStrategy == IOStrategy.BlockByBlockWithBufferedStream) || (ioStrategy == IOStrategy.ByteByByteWithBufferedStream)) {
-				os = new BufferedOutputStream(os);
+				os = new BufferedOutputStream(os, streamBufferSize);
 			}
 
 			// Now, let's call the method that does the actual work and produces bytes on the stream
-			produceDataToStream(os, ioStrategy, numberOfBytesToWrite, blockSize);
-
-			// We are done, so we only have to close the output stream
-			os.close();
-		} catch (IOException ex) {
-			LOG.log(Level.SEVERE, ex.getMessage(), ex);
+			produceDataToStream(os, ioStrategy, numberOfBytesToWrite, blockSize, samples);
 		} finally {
-			try {
-				if (os != null) {
-					os.close();
-				}
-			} catch (IOException ex) {
-				LOG.log(Level.SEVERE, ex.getMessage(), ex);
+			// We are done, so we only have to close the output stream
+			if (os != null) {
+				os.close();
 			}
 		}
-		LOG.log(Level.INFO, "  > Done in {0} ms.", timer.takeTime());
 	}
 	
 	/**
@@ -87,12 +236,14 @@ public class BufferedIOBenchmark {
 	 * Depending on the strategy, the method either writes bytes one by one OR in chunks (the size of the chunk
 	 * is passed in parameter)
 	 */ 
-	private void produceDataToStream(OutputStream os, IOStrategy ioStrategy, long numberOfBytesToWrite, int blockSize) throws IOException {
+	private void produceDataToStream(OutputStream os, IOStrategy ioStrategy, long numberOfBytesToWrite, int blockSize, MeasuresManager.Samples samples) throws IOException {
 		// If the strategy dictates to write byte by byte, then it's easy to write the loop; but let's just hope that our client has 
 		// given us a buffered output stream, otherwise the performance will be really bad
 		if ((ioStrategy == IOStrategy.ByteByByteWithBufferedStream) || (ioStrategy == IOStrategy.ByteByByteWithoutBufferedStream)) {
-			for (int i = 0; i < numberOfBytesToWrite; i++) {
+			for (long i = 0; i < numberOfBytesToWrite; i++) {
+				long startTime = startTime(samples);
 				os.write('h');
+				record(samples, startTime, 1);
 			}
 
 			// If the strategy dictates to write block by block, then the loop is a bit longer to write
@@ -102,11 +253,13 @@ public class BufferedIOBenchmark {
 			byte[] block = new byte[blockSize];
 
 			// we start by writing a number of entire blocks
-			for (int i = 0; i < numberOfBlocks; i++) {
+			for (long i = 0; i < numberOfBlocks; i++) {
 				for (int j = 0; j < blockSize; j++) {
 					block[j] = 'b';
 				}
+				long startTime = startTime(samples);
 				os.write(block);
+				record(samples, startTime, blockSize);
 			}
 
 			// and we write a partial block at the end
@@ -114,48 +267,230 @@ public class BufferedIOBenchmark {
 				for (int j = 0; j < remainder; j++) {
 					block[j] = 'B';
 				}
+				long startTime = startTime(samples);
 				os.write(block, 0, (int) remainder);
+				record(samples, startTime, remainder);
+			}
+		}
+	}
+
+	/**
+	 * This method allocates the single ByteBuffer used by the file channel strategies for the whole file,
+	 * either on the heap or in native memory.
+	 */
+	private ByteBuffer allocateBlock(IOStrategy ioStrategy, int blockSize) {
+		if (ioStrategy == IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer) {
+			return ByteBuffer.allocateDirect(blockSize);
+		}
+		return ByteBuffer.allocate(blockSize);
+	}
+
+	/**
+	 * This method produces bytes on the passed file channel, block by block. It does the same work as
+	 * produceDataToStream, but the block is a ByteBuffer that is filled and written again and again.
+	 */
+	private void produceDataToChannel(FileChannel channel, ByteBuffer block, long numberOfBytesToWrite, MeasuresManager.Samples samples) throws IOException {
+		int blockSize = block.capacity();
+		long numberOfBlocks = (numberOfBytesToWrite / blockSize);
+		long remainder = numberOfBytesToWrite % blockSize;
+
+		// we start by writing a number of entire blocks
+		for (long i = 0; i < numberOfBlocks; i++) {
+			block.clear();
+			for (int j = 0; j < blockSize; j++) {
+				block.put(j, (byte) 'b');
+			}
+			// a channel may write less bytes than requested, so we loop until the block is empty
+			long startTime = startTime(samples);
+			while (block.hasRemaining()) {
+				channel.write(block);
+			}
+			record(samples, startTime, blockSize);
+		}
+
+		// and we write a partial block at the end
+		if (remainder != 0) {
+			block.clear();
+			block.limit((int) remainder);
+			for (int j = 0; j < remainder; j++) {
+				block.put(j, (byte) 'B');
+			}
+			long startTime = startTime(samples);
+			while (block.hasRemaining()) {
+				channel.write(block);
+			}
+			record(samples, startTime, remainder);
+		}
+	}
+
+	/**
+	 * This method produces bytes in a memory mapped file, block by block. It does the same work as
+	 * produceDataToStream, but every block is copied in the mapped memory instead of being written
+	 * with a system call.
+	 */
+	private void produceDataToMappedFile(MappedFileWindow window, long numberOfBytesToWrite, int blockSize, MeasuresManager.Samples samples) throws IOException {
+		long numberOfBlocks = (numberOfBytesToWrite / blockSize);
+		long remainder = numberOfBytesToWrite % blockSize;
+		byte[] block = new byte[blockSize];
+
+		// we start by writing a number of entire blocks
+		for (long i = 0; i < numberOfBlocks; i++) {
+			for (int j = 0; j < blockSize; j++) {
+				block[j] = 'b';
+			}
+			long startTime = startTime(samples);
+			window.put(block, 0, blockSize);
+			record(samples, startTime, blockSize);
+		}
+
+		// and we write a partial block at the end
+		if (remainder != 0) {
+			for (int j = 0; j < remainder; j++) {
+				block[j] = 'B';
+			}
+			long startTime = startTime(samples);
+			window.put(block, 0, (int) remainder);
+			record(samples, startTime, remainder);
+		}
+	}
+
+	/**
+	 * This method writes a test file block by block, with a FileChannel and a direct buffer, and forces the
+	 * data to the storage device according to the sync policy. The syncInterval is a number of bytes for
+	 * EVERY_N_BYTES and a number of ms for EVERY_N_MILLIS; it is ignored by the other policies. If a 
+	 * MeasuresManager is set, both the writes and the syncs are recorded, so that the latency of the syncs
+	 * can be analyzed separately.
+	 */
+	public void writeDurableTestFile(File file, SyncPolicy syncPolicy, long syncInterval, long numberOfBytesToWrite, int blockSize) throws IOException {
+		String configuration = syncPolicy + " " + syncInterval + " " + blockSize;
+		MeasuresManager.Samples writeSamples = (measuresManager == null) ? null : measuresManager.getSamples("DURABLE WRITE " + configuration);
+		MeasuresManager.Samples syncSamples = (measuresManager == null) ? null : measuresManager.getSamples("SYNC " + configuration);
+
+		Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		if (syncPolicy == SyncPolicy.OPEN_SYNC) {
+			options.add(StandardOpenOption.SYNC);
+		} else if (syncPolicy == SyncPolicy.OPEN_DSYNC) {
+			options.add(StandardOpenOption.DSYNC);
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), options)) {
+			ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+			long numberOfBytesWritten = 0;
+			long numberOfBytesSinceLastSync = 0;
+			long lastSyncTime = System.nanoTime();
+			while (numberOfBytesWritten < numberOfBytesToWrite) {
+				int length = (int) Math.min(blockSize, numberOfBytesToWrite - numberOfBytesWritten);
+				block.clear();
+				block.limit(length);
+				for (int j = 0; j < length; j++) {
+					block.put(j, (length == blockSize) ? (byte) 'b' : (byte) 'B');
+				}
+				long startTime = startTime(writeSamples);
+				while (block.hasRemaining()) {
+					channel.write(block);
+				}
+				record(writeSamples, startTime, length);
+				numberOfBytesWritten += length;
+				numberOfBytesSinceLastSync += length;
+
+				boolean syncNow = (syncPolicy == SyncPolicy.PER_BLOCK)
+					|| (syncPolicy == SyncPolicy.EVERY_N_BYTES && numberOfBytesSinceLastSync >= syncInterval)
+					|| (syncPolicy == SyncPolicy.EVERY_N_MILLIS && System.nanoTime() - lastSyncTime >= syncInterval * 1_000_000);
+				if (syncNow) {
+					sync(channel, syncSamples, numberOfBytesSinceLastSync);
+					numberOfBytesSinceLastSync = 0;
+					lastSyncTime = System.nanoTime();
+				}
+			}
+
+			// with all policies that call force, the last bytes must also be made durable before closing
+			if (syncPolicy != SyncPolicy.NONE && syncPolicy != SyncPolicy.OPEN_SYNC && syncPolicy != SyncPolicy.OPEN_DSYNC && numberOfBytesSinceLastSync > 0) {
+				sync(channel, syncSamples, numberOfBytesSinceLastSync);
 			}
 		}
 	}
 
 	/**
-	 * This method drives the consumption of test data file, based on the parameters passed. The method opens a
-	 * FileInputStream. Depending on the strategy, it wraps a BufferedInputStream around it, or not. The method
-	 * then delegates the actual consumption of bytes to another method, passing it the stream.
+	 * Forces the content of the file to the storage device. We do not need to force the metadata (such as
+	 * the last modification time), but the OS still writes the file size, which is needed to read the data.
+	 */
+	private static void sync(FileChannel channel, MeasuresManager.Samples syncSamples, long numberOfBytesSinceLastSync) throws IOException {
+		long startTime = startTime(syncSamples);
+		channel.force(false);
+		record(syncSamples, startTime, numberOfBytesSinceLastSync);
+	}
+
+	/**
+	 * This method drives the consumption of test data file, based on the parameters passed. It measures the time
+	 * it takes to read the file and delegates the actual work to readTestFile.
 	 */
 	private void consumeTestData(IOStrategy ioStrategy, int blockSize) {
 		LOG.log(Level.INFO, "Consuming test data ({0}, block size: {1}...", new Object[]{ioStrategy, blockSize});
 		timer.start();
 
+		long totalBytes = 0;
+		try {
+			totalBytes = readTestFile(new File(FILENAME_PREFIX + "-" + ioStrategy + "-" + blockSize + ".bin"), ioStrategy, blockSize);
+			LOG.log(Level.INFO, "Number of bytes read: {0}", new Object[]{totalBytes});
+		} catch (IOException ex) {
+			LOG.log(Level.SEVERE, ex.getMessage(), ex);
+		}
+		logSection(timer.takeSection(), totalBytes);
+
+	}
+
+	/**
+	 * This method reads a test file and returns the number of bytes read. It opens a FileInputStream. Depending
+	 * on the strategy, it wraps a BufferedInputStream around it, or not. The method then delegates the actual 
+	 * consumption of bytes to another method, passing it the stream. It does not log anything, so that it can
+	 * also be called from the JMH benchmarks.
+	 */
+	public long readTestFile(File file, IOStrategy ioStrategy, int blockSize) throws IOException {
+		MeasuresManager.Samples samples = getSamples("READ", ioStrategy, blockSize);
+
+		// If the strategy dictates to use a file channel, then we do not need any stream
+		if ((ioStrategy == IOStrategy.BlockByBlockWithFileChannelAndHeapBuffer) || (ioStrategy == IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer)) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				return consumeDataFromChannel(channel, allocateBlock(ioStrategy, blockSize), samples);
+			}
+		}
+
+		// If the strategy dictates to map the file in memory, then we do it one window at a time
+		if (ioStrategy == IOStrategy.BlockByBlockWithMemoryMappedFile) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				return consumeDataFromMappedFile(new MappedFileWindow(channel, FileChannel.MapMode.READ_ONLY, channel.size(), mappingWindowSize), blockSize, samples);
+			}
+		}
+
+		// If the strategy dictates to use an asynchronous file channel, then its thread pool must be able to run
+		// queueDepth operations at the same time
+		if (ioStrategy == IOStrategy.BlockByBlockWithAsynchronousFileChannel) {
+			ExecutorService executor = Executors.newFixedThreadPool(queueDepth);
+			try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(file.toPath(), EnumSet.of(StandardOpenOption.READ), executor)) {
+				return AsynchronousFileIO.read(channel, blockSize, queueDepth, samples);
+			} finally {
+				executor.shutdown();
+			}
+		}
+
 		InputStream is = null;
 		try {
-			// Let's connect our stream to a file data sink
-			is = new FileInputStream(FILENAME_PREFIX + "-" + ioStrategy + "-" + blockSize + ".bin");
+			// Let's connect our stream to a file data source
+			is = new FileInputStream(file);
 
 			// If the strategy dictates to use a buffered stream, then let's wrap one around our file input stream
 			if ((ioStrategy == IOStrategy.BlockByBlockWithBufferedStream) || (ioStrategy == IOStrategy.ByteByByteWithBufferedStream)) {
-				is = new BufferedInputStream(is);
+				is = new BufferedInputStream(is, streamBufferSize);
 			}
 
-			// Now, let's call the method that does the actual work and produces bytes on the stream
-			consumeDataFromStream(is, ioStrategy, blockSize);
-
-			// We are done, so we only have to close the input stream
-			is.close();
-		} catch (IOException ex) {
-			LOG.log(Level.SEVERE, ex.getMessage(), ex);
+			// Now, let's call the method that does the actual work and consumes bytes from the stream
+			return consumeDataFromStream(is, ioStrategy, blockSize, samples);
 		} finally {
-			try {
-				if (is != null) {
-					is.close();
-				}
-			} catch (IOException ex) {
-				LOG.log(Level.SEVERE, ex.getMessage(), ex);
+			// We are done, so we only have to close the input stream
+			if (is != null) {
+				is.close();
 			}
 		}
-		LOG.log(Level.INFO, "  > Done in {0} ms.", timer.takeTime());
-
 	}
 
 	/**
@@ -163,13 +498,15 @@ public class BufferedIOBenchmark {
 	 * Depending on the strategy, the method either reads bytes one by one OR in chunks (the size of the chunk
 	 * is passed in parameter). The method does not do anything with the read bytes, except counting them.
 	 */ 
-	private void consumeDataFromStream(InputStream is, IOStrategy ioStrategy, int blockSize) throws IOException {
-		int totalBytes = 0;
+	private long consumeDataFromStream(InputStream is, IOStrategy ioStrategy, int blockSize, MeasuresManager.Samples samples) throws IOException {
+		long totalBytes = 0;
 		// If the strategy dictates to write byte by byte, then it's easy to write the loop; but let's just hope that our client has 
 		// given us a buffered output stream, otherwise the performance will be really bad
 		if ((ioStrategy == IOStrategy.ByteByByteWithBufferedStream) || (ioStrategy == IOStrategy.ByteByByteWithoutBufferedStream)) {
 			int c;
+			long startTime = startTime(samples);
 			while ((c = is.read()) != -1) {
+				startTime = record(samples, startTime, 1);
 				// here, we could cast c to a byte and process it
 				totalBytes++;
 			}
@@ -178,16 +515,125 @@ public class BufferedIOBenchmark {
 		} else {
 			byte[] block = new byte[blockSize];
 			int bytesRead = 0;
+			long startTime = startTime(samples);
 			while ((bytesRead = is.read(block)) != -1) {
+				startTime = record(samples, startTime, bytesRead);
 				// here, we can process bytes block[0..bytesRead]
 				totalBytes += bytesRead;
 			}
 		}
 		
-		LOG.log(Level.INFO, "Number of bytes read: {0}", new Object[]{totalBytes});
+		return totalBytes;
+	}
+
+	/**
+	 * This method consumes bytes from the passed file channel, block by block, and counts them. The
+	 * same ByteBuffer is cleared and filled again for every read operation.
+	 */
+	private long consumeDataFromChannel(FileChannel channel, ByteBuffer block, MeasuresManager.Samples samples) throws IOException {
+		long totalBytes = 0;
+		int bytesRead = 0;
+		long startTime = startTime(samples);
+		while ((bytesRead = channel.read(block)) != -1) {
+			startTime = record(samples, startTime, bytesRead);
+			// here, we could flip the block and process its bytes
+			totalBytes += bytesRead;
+			block.clear();
+		}
+		return totalBytes;
 	}
 
 	/**
+	 * This method consumes bytes from a memory mapped file, block by block, and counts them.
+	 */
+	private long consumeDataFromMappedFile(MappedFileWindow window, int blockSize, MeasuresManager.Samples samples) throws IOException {
+		long totalBytes = 0;
+		byte[] block = new byte[blockSize];
+		int bytesRead = 0;
+		long startTime = startTime(samples);
+		while ((bytesRead = window.get(block, 0, blockSize)) != -1) {
+			startTime = record(samples, startTime, bytesRead);
+			// here, we can process bytes block[0..bytesRead]
+			totalBytes += bytesRead;
+		}
+		return totalBytes;
+	}
+
+	/**
+	 * Returns the start time of an operation, if operations are recorded.
+	 */
+	private static long startTime(MeasuresManager.Samples samples) {
+		return (samples != null) ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the duration of an operation, if operations are recorded. Returns the current time, which
+	 * read loops use as the start time of the next operation.
+	 */
+	private static long record(MeasuresManager.Samples samples, long startTime, long numberOfBytes) {
+		if (samples == null) {
+			return 0;
+		}
+		long now = System.nanoTime();
+		samples.record(now - startTime, numberOfBytes);
+		return now;
+	}
+
+	/**
+	 * Logs the measures of a section timed by our Timer: elapsed time, throughput, CPU time,
+	 * allocated bytes and garbage collections.
+	 */
+	private static void logSection(TimedSection section, long numberOfBytes) {
+		double durationInMs = section.getElapsedTimeInNs() / 1e6;
+		double throughput = (numberOfBytes / (1024.0 * 1024.0)) / (section.getElapsedTimeInNs() / 1e9);
+		LOG.log(Level.INFO, String.format(Locale.ROOT, "  > Done in %.3f ms (%.1f MB/s), CPU: %.3f ms, allocated: %,d bytes, GC: %d collections in %d ms.",
+			durationInMs, throughput, section.getCpuTimeInMs(), section.getAllocatedBytes(), section.getGcCount(), section.getGcTimeInMs()));
+	}
+
+	/**
+	 * This method compares the block by block strategies that are usable on very large files (several GB):
+	 * buffered streams, file channels with a direct buffer and memory mapped files. The slow strategies are
+	 * left aside, since they would take hours on such files.
+	 */
+	private void benchmarkLargeFiles(long numberOfBytesToWrite, int blockSize) {
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "*** BENCHMARKING WRITE OPERATIONS ON LARGE FILES (mapping window size: {0} bytes)", mappingWindowSize);
+		produceTestData(IOStrategy.BlockByBlockWithBufferedStream, numberOfBytesToWrite, blockSize);
+		produceTestData(IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer, numberOfBytesToWrite, blockSize);
+		produceTestData(IOStrategy.BlockByBlockWithMemoryMappedFile, numberOfBytesToWrite, blockSize);
+
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "*** BENCHMARKING READ OPERATIONS ON LARGE FILES (mapping window size: {0} bytes)", mappingWindowSize);
+		consumeTestData(IOStrategy.BlockByBlockWithBufferedStream, blockSize);
+		consumeTestData(IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer, blockSize);
+		consumeTestData(IOStrategy.BlockByBlockWithMemoryMappedFile, blockSize);
+	}
+
+	/**
+	 * This method logs the latency distribution of the individual read and write operations, and exports
+	 * the statistics in CSV and JSON files.
+	 */
+	private void reportMeasures() {
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "*** LATENCY OF THE INDIVIDUAL OPERATIONS (in microseconds)");
+		for (MeasureStatistics s : measuresManager.computeStatistics()) {
+			LOG.log(Level.INFO, String.format(Locale.ROOT, "%-60s %,10d ops  min %9.3f  p50 %9.3f  p90 %9.3f  p99 %9.3f  p99.9 %9.3f  max %11.3f  %9.1f MB/s",
+				s.getOperationType(), s.getNumberOfSamples(), s.getMin() / 1e3, s.getP50() / 1e3, s.getP90() / 1e3,
+				s.getP99() / 1e3, s.getP999() / 1e3, s.getMax() / 1e3, s.getThroughputInMBps()));
+		}
+		try (Writer csvWriter = new FileWriter(MEASURES_FILENAME + ".csv");
+				Writer jsonWriter = new FileWriter(MEASURES_FILENAME + ".json")) {
+			measuresManager.exportToCsv(csvWriter);
+			measuresManager.exportToJson(jsonWriter);
+		} catch (IOException ex) {
+			LOG.log(Level.SEVERE, ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * Without arguments, the program runs all strategies on 10 MB files. With arguments, it only runs the
+	 * strategies usable on large files: [number of bytes to write] [block size] [mapping window size]
+	 * 
 	 * @param args the command line arguments
 	 */
 	public static void main(String[] args) {
@@ -195,6 +641,18 @@ public class BufferedIOBenchmark {
 
 		Timer timer = new Timer();
 		BufferedIOBenchmark bm = new BufferedIOBenchmark(timer);
+		bm.setMeasuresManager(new MeasuresManager());
+
+		if (args.length > 0) {
+			long numberOfBytesToWrite = Long.parseLong(args[0]);
+			int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 65536;
+			if (args.length > 2) {
+				bm.setMappingWindowSize(Long.parseLong(args[2]));
+			}
+			bm.benchmarkLargeFiles(numberOfBytesToWrite, blockSize);
+			bm.reportMeasures();
+			return;
+		}
 
 		LOG.log(Level.INFO, "");
 		LOG.log(Level.INFO, "*** BENCHMARKING WRITE OPERATIONS (with BufferedStream)", timer.takeTime());
@@ -223,6 +681,32 @@ public class BufferedIOBenchmark {
 		bm.consumeTestData(IOStrategy.BlockByBlockWithoutBufferedStream, 50);
 		bm.consumeTestData(IOStrategy.BlockByBlockWithoutBufferedStream, 5);
 		bm.consumeTestData(IOStrategy.ByteByByteWithoutBufferedStream, 0);
+
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "*** BENCHMARKING WRITE OPERATIONS (with FileChannel)", timer.takeTime());
+		bm.produceTestData(IOStrategy.BlockByBlockWithFileChannelAndHeapBuffer, NUMBER_OF_BYTES_TO_WRITE, 500);
+		bm.produceTestData(IOStrategy.BlockByBlockWithFileChannelAndHeapBuffer, NUMBER_OF_BYTES_TO_WRITE, 8192);
+		bm.produceTestData(IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer, NUMBER_OF_BYTES_TO_WRITE, 500);
+		bm.produceTestData(IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer, NUMBER_OF_BYTES_TO_WRITE, 8192);
+
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "*** BENCHMARKING READ OPERATIONS (with FileChannel)", timer.takeTime());
+		bm.consumeTestData(IOStrategy.BlockByBlockWithFileChannelAndHeapBuffer, 500);
+		bm.consumeTestData(IOStrategy.BlockByBlockWithFileChannelAndHeapBuffer, 8192);
+		bm.consumeTestData(IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer, 500);
+		bm.consumeTestData(IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer, 8192);
+
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "*** BENCHMARKING WRITE OPERATIONS (with memory mapped file)", timer.takeTime());
+		bm.produceTestData(IOStrategy.BlockByBlockWithMemoryMappedFile, NUMBER_OF_BYTES_TO_WRITE, 500);
+		bm.produceTestData(IOStrategy.BlockByBlockWithMemoryMappedFile, NUMBER_OF_BYTES_TO_WRITE, 8192);
+
+		LOG.log(Level.INFO, "");
+		LOG.log(Level.INFO, "*** BENCHMARKING READ OPERATIONS (with memory mapped file)", timer.takeTime());
+		bm.consumeTestData(IOStrategy.BlockByBlockWithMemoryMappedFile, 500);
+		bm.consumeTestData(IOStrategy.BlockByBlockWithMemoryMappedFile, 8192);
+
+		bm.reportMeasures();
 	}
 
 }
@@ -0,0 +1,90 @@
+package ch.heigvd.res.io;
+
+import ch.heigvd.res.io.BufferedIOBenchmark.SyncPolicy;
+import ch.heigvd.res.io.util.MeasureStatistics;
+import ch.heigvd.res.io.util.MeasuresManager;
+import ch.heigvd.res.io.util.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This program shows what it costs to make written data durable (i.e. to make sure
+ * that it survives a crash of the OS or a power failure). It writes the same file
+ * with every SyncPolicy, and reports the throughput, the number of syncs and the
+ * latency of the syncs. Without syncs, we only measure how fast the OS copies our
+ * bytes into its page cache.
+ * 
+ * A journal with group commit syncs every N ms: the larger the interval, the better
+ * the throughput, but the more recent writes may be lost in a crash (and the longer
+ * a writer may wait for its data to be acknowledged).
+ * 
+ * @author Olivier Liechti
+ */
+public class DurabilityBenchmark {
+
+	static final Logger LOG = Logger.getLogger(DurabilityBenchmark.class.getName());
+
+	final static String FILENAME = "durability-data.bin";
+
+	private final BufferedIOBenchmark benchmark;
+	private final MeasuresManager measuresManager = new MeasuresManager();
+	private final Timer timer = new Timer();
+	private final File file;
+	private final long numberOfBytes;
+	private final int blockSize;
+
+	public DurabilityBenchmark(File file, long numberOfBytes, int blockSize) {
+		this.file = file;
+		this.numberOfBytes = numberOfBytes;
+		this.blockSize = blockSize;
+		this.benchmark = new BufferedIOBenchmark(timer);
+		this.benchmark.setMeasuresManager(measuresManager);
+	}
+
+	private void measure(SyncPolicy syncPolicy, long syncInterval) throws IOException {
+		timer.start();
+		benchmark.writeDurableTestFile(file, syncPolicy, syncInterval, numberOfBytes, blockSize);
+		long duration = timer.takeSection().getElapsedTimeInNs();
+
+		// with OPEN_SYNC and OPEN_DSYNC, every write is a sync
+		String operation = (syncPolicy == SyncPolicy.OPEN_SYNC || syncPolicy == SyncPolicy.OPEN_DSYNC) ? "DURABLE WRITE " : "SYNC ";
+		MeasureStatistics syncs = measuresManager.getSamples(operation + syncPolicy + " " + syncInterval + " " + blockSize).computeStatistics();
+		LOG.log(Level.INFO, String.format(Locale.ROOT, "%-15s %8d %9.1f MB/s %7d syncs  sync latency (ms) p50 %8.3f  p99 %8.3f  max %8.3f",
+			syncPolicy, syncInterval, (numberOfBytes / (1024.0 * 1024.0)) / (duration / 1e9), syncs.getNumberOfSamples(),
+			syncs.getP50() / 1e6, syncs.getP99() / 1e6, syncs.getMax() / 1e6));
+	}
+
+	/**
+	 * @param args [number of bytes] [block size]
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s %n");
+
+		long numberOfBytes = args.length > 0 ? Long.parseLong(args[0]) : 1024 * 1024 * 16;
+		int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+		File file = new File(FILENAME);
+		DurabilityBenchmark benchmark = new DurabilityBenchmark(file, numberOfBytes, blockSize);
+
+		LOG.log(Level.INFO, "*** BENCHMARKING SYNC POLICIES ({0} bytes, block size: {1})", new Object[]{numberOfBytes, blockSize});
+		LOG.log(Level.INFO, "policy          interval");
+		try {
+			benchmark.measure(SyncPolicy.NONE, 0);
+			benchmark.measure(SyncPolicy.AT_CLOSE, 0);
+			benchmark.measure(SyncPolicy.PER_BLOCK, 0);
+			benchmark.measure(SyncPolicy.EVERY_N_BYTES, 64 * 1024);
+			benchmark.measure(SyncPolicy.EVERY_N_BYTES, 1024 * 1024);
+			benchmark.measure(SyncPolicy.EVERY_N_BYTES, 8 * 1024 * 1024);
+			benchmark.measure(SyncPolicy.EVERY_N_MILLIS, 1);
+			benchmark.measure(SyncPolicy.EVERY_N_MILLIS, 10);
+			benchmark.measure(SyncPolicy.EVERY_N_MILLIS, 100);
+			benchmark.measure(SyncPolicy.OPEN_SYNC, 0);
+			benchmark.measure(SyncPolicy.OPEN_DSYNC, 0);
+		} finally {
+			file.delete();
+		}
+	}
+
+}
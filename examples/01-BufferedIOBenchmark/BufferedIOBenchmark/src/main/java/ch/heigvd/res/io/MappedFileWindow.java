@@ -0,0 +1,87 @@
+package ch.heigvd.res.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A MappedByteBuffer is indexed with an int, so a single mapping can not cover
+ * more than 2 GB. This class makes it possible to process larger files, by
+ * sliding a window (i.e. a mapping of a fixed size) over the file. When the
+ * current window has been fully processed, the next region of the file is mapped.
+ * 
+ * Note that the JDK does not offer a way to unmap a buffer: the previous windows
+ * are unmapped when they are garbage collected. On a 64-bit JVM, this only
+ * consumes virtual address space.
+ * 
+ * @author Olivier Liechti
+ */
+class MappedFileWindow {
+
+	private final FileChannel channel;
+	private final FileChannel.MapMode mapMode;
+	private final long fileSize;
+	private final long windowSize;
+
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+
+	/**
+	 * @param channel the channel of the mapped file (opened for reading, or for reading and writing)
+	 * @param mapMode READ_ONLY to consume the file, READ_WRITE to produce it
+	 * @param fileSize the size of the file; when producing, the file is extended up to this size
+	 * @param windowSize the size of the mapped regions, at most Integer.MAX_VALUE
+	 */
+	MappedFileWindow(FileChannel channel, FileChannel.MapMode mapMode, long fileSize, long windowSize) {
+		if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The window size must be between 1 and " + Integer.MAX_VALUE + " bytes");
+		}
+		this.channel = channel;
+		this.mapMode = mapMode;
+		this.fileSize = fileSize;
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Copies len bytes from the array into the file, mapping new windows as needed.
+	 */
+	void put(byte[] src, int off, int len) throws IOException {
+		while (len > 0) {
+			if (!nextWindowIfNeeded()) {
+				throw new IOException("Cannot write beyond the size of the mapped file (" + fileSize + " bytes)");
+			}
+			int n = Math.min(len, window.remaining());
+			window.put(src, off, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Copies at most len bytes from the file into the array, mapping a new window if
+	 * needed. Like InputStream.read, returns -1 at the end of the file.
+	 */
+	int get(byte[] dst, int off, int len) throws IOException {
+		if (!nextWindowIfNeeded()) {
+			return -1;
+		}
+		int n = Math.min(len, window.remaining());
+		window.get(dst, off, n);
+		return n;
+	}
+
+	private boolean nextWindowIfNeeded() throws IOException {
+		if (window != null && window.hasRemaining()) {
+			return true;
+		}
+		if (window != null) {
+			windowStart += window.capacity();
+		}
+		if (windowStart >= fileSize) {
+			return false;
+		}
+		window = channel.map(mapMode, windowStart, Math.min(windowSize, fileSize - windowStart));
+		return true;
+	}
+
+}
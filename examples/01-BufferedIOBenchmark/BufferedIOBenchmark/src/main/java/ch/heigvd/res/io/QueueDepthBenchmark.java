@@ -0,0 +1,67 @@
+package ch.heigvd.res.io;
+
+import ch.heigvd.res.io.BufferedIOBenchmark.IOStrategy;
+import ch.heigvd.res.io.util.MeasureStatistics;
+import ch.heigvd.res.io.util.MeasuresManager;
+import ch.heigvd.res.io.util.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This program measures the BlockByBlockWithAsynchronousFileChannel strategy with
+ * queue depths from 1 to 64 (i.e. 1 to 64 operations in flight). For every queue
+ * depth, it reports the throughput and the latency of the individual operations.
+ * Fast devices (such as NVMe drives) need many operations in flight to deliver
+ * their best throughput, at the cost of a higher latency per operation.
+ * 
+ * @author Olivier Liechti
+ */
+public class QueueDepthBenchmark {
+
+	static final Logger LOG = Logger.getLogger(QueueDepthBenchmark.class.getName());
+
+	final static String FILENAME = "queue-depth-data.bin";
+	final static int MAX_QUEUE_DEPTH = 64;
+
+	/**
+	 * @param args [number of bytes] [block size]
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s %n");
+
+		long numberOfBytes = args.length > 0 ? Long.parseLong(args[0]) : 1024 * 1024 * 256;
+		int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+		File file = new File(FILENAME);
+
+		LOG.log(Level.INFO, "*** BENCHMARKING ASYNCHRONOUS FILE CHANNEL ({0} bytes, block size: {1})", new Object[]{numberOfBytes, blockSize});
+		try {
+			for (int queueDepth = 1; queueDepth <= MAX_QUEUE_DEPTH; queueDepth *= 2) {
+				Timer timer = new Timer();
+				MeasuresManager measuresManager = new MeasuresManager();
+				BufferedIOBenchmark benchmark = new BufferedIOBenchmark(timer);
+				benchmark.setMeasuresManager(measuresManager);
+				benchmark.setQueueDepth(queueDepth);
+
+				timer.start();
+				benchmark.writeTestFile(file, IOStrategy.BlockByBlockWithAsynchronousFileChannel, numberOfBytes, blockSize);
+				long writeDuration = timer.takeSection().getElapsedTimeInNs();
+				long numberOfBytesRead = benchmark.readTestFile(file, IOStrategy.BlockByBlockWithAsynchronousFileChannel, blockSize);
+				long readDuration = timer.takeSection().getElapsedTimeInNs();
+
+				for (MeasureStatistics s : measuresManager.computeStatistics()) {
+					long bytes = s.getOperationType().startsWith("WRITE") ? numberOfBytes : numberOfBytesRead;
+					long duration = s.getOperationType().startsWith("WRITE") ? writeDuration : readDuration;
+					LOG.log(Level.INFO, String.format(Locale.ROOT, "QD %2d %-5s %9.1f MB/s %10.0f IOPS  latency (us) p50 %9.3f  p99 %9.3f  p99.9 %9.3f  max %10.3f",
+						queueDepth, s.getOperationType().split(" ")[0], (bytes / (1024.0 * 1024.0)) / (duration / 1e9), s.getNumberOfSamples() / (duration / 1e9),
+						s.getP50() / 1e3, s.getP99() / 1e3, s.getP999() / 1e3, s.getMax() / 1e3));
+				}
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+}
@@ -0,0 +1,324 @@
+package ch.heigvd.res.io;
+
+import ch.heigvd.res.io.BufferedIOBenchmark.IOStrategy;
+import ch.heigvd.res.io.util.MeasureStatistics;
+import ch.heigvd.res.io.util.MeasuresManager;
+import ch.heigvd.res.io.util.Timer;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BufferedIOBenchmark only reads files sequentially, from start to end. Many
+ * services (e.g. a lookup service) rather read records at random positions, and
+ * their performance is dominated by the latency of individual reads. This program
+ * reads fixed-size records in a large file, with different access patterns and
+ * different access methods, with 1 up to N threads. It reports the number of reads
+ * per second (IOPS) and the latency percentiles of the reads.
+ * 
+ * The access patterns are: uniform (every record has the same probability), Zipfian
+ * (a few hot records are read very often, as in most real workloads) and strided
+ * (every thread reads every k-th record).
+ * 
+ * The access methods are: a FileInputStream per thread, which skips to the record
+ * (skip can move backwards with a FileInputStream); a shared FileChannel with
+ * positional reads; and the file mapped in memory.
+ * 
+ * @author Olivier Liechti
+ */
+public class RandomReadBenchmark {
+
+	static final Logger LOG = Logger.getLogger(RandomReadBenchmark.class.getName());
+
+	final static String DEFAULT_FILENAME = "random-read-data.bin";
+	final static long DEFAULT_FILE_SIZE = 1024L * 1024 * 1024;
+	final static int DEFAULT_RECORD_SIZE = 4096;
+	final static int DEFAULT_NUMBER_OF_READS_PER_THREAD = 100000;
+	final static int DEFAULT_STRIDE = 16;
+	final static double ZIPFIAN_CONSTANT = 0.99;
+
+	/**
+	 * A MappedByteBuffer cannot map more than 2 GB, so the file is mapped in regions of this size.
+	 */
+	final static long MAPPED_REGION_SIZE = 1024L * 1024 * 1024;
+
+	public enum AccessPattern {
+		UNIFORM,
+		ZIPFIAN,
+		STRIDED
+	};
+
+	public enum AccessMethod {
+		STREAM_WITH_SKIP,
+		POSITIONAL_FILE_CHANNEL,
+		MEMORY_MAPPED_FILE
+	};
+
+	private final File file;
+	private final int recordSize;
+	private final long numberOfRecords;
+	private final int numberOfReadsPerThread;
+	private final int stride;
+
+	/**
+	 * Computing zeta visits every record, which takes seconds with hundreds of millions of records.
+	 * It is only done for the first Zipfian run.
+	 */
+	private boolean zipfianConstantsComputed = false;
+	private double zipfianZeta;
+	private double zipfianEta;
+
+	public RandomReadBenchmark(File file, int recordSize, int numberOfReadsPerThread, int stride) {
+		this.file = file;
+		this.recordSize = recordSize;
+		this.numberOfRecords = file.length() / recordSize;
+		this.numberOfReadsPerThread = numberOfReadsPerThread;
+		this.stride = stride;
+	}
+
+	private void computeZipfianConstants() {
+		if (!zipfianConstantsComputed) {
+			zipfianZeta = zeta(numberOfRecords, ZIPFIAN_CONSTANT);
+			zipfianEta = (1 - Math.pow(2.0 / numberOfRecords, 1 - ZIPFIAN_CONSTANT)) / (1 - zeta(2, ZIPFIAN_CONSTANT) / zipfianZeta);
+			zipfianConstantsComputed = true;
+		}
+	}
+
+	/**
+	 * Generates the indexes of the records read by one thread. Every thread has its own generator.
+	 */
+	private class RecordIndexGenerator {
+
+		private final AccessPattern accessPattern;
+		private final SplittableRandom random;
+		private long nextStridedIndex;
+
+		RecordIndexGenerator(AccessPattern accessPattern, int threadIndex) {
+			this.accessPattern = accessPattern;
+			this.random = new SplittableRandom(threadIndex);
+			this.nextStridedIndex = threadIndex;
+		}
+
+		long nextIndex() {
+			switch (accessPattern) {
+				case UNIFORM:
+					return random.nextLong(numberOfRecords);
+				case ZIPFIAN:
+					// the hot records are spread over the file, rather than being all at the beginning
+					return scramble(nextZipfian());
+				default:
+					long index = nextStridedIndex;
+					nextStridedIndex = (nextStridedIndex + stride) % numberOfRecords;
+					return index;
+			}
+		}
+
+		/**
+		 * Returns a Zipfian distributed rank in [0, numberOfRecords), with the algorithm described by
+		 * Gray et al. in "Quickly Generating Billion-Record Synthetic Databases" (also used by YCSB).
+		 */
+		private long nextZipfian() {
+			double u = random.nextDouble();
+			double uz = u * zipfianZeta;
+			if (uz < 1.0) {
+				return 0;
+			}
+			if (uz < 1.0 + Math.pow(0.5, ZIPFIAN_CONSTANT)) {
+				return 1;
+			}
+			double alpha = 1.0 / (1.0 - ZIPFIAN_CONSTANT);
+			return Math.min(numberOfRecords - 1, (long) (numberOfRecords * Math.pow(zipfianEta * u - zipfianEta + 1, alpha)));
+		}
+
+		private long scramble(long rank) {
+			long hash = rank * 0x9E3779B97F4A7C15L;
+			return Math.floorMod(hash ^ (hash >>> 32), numberOfRecords);
+		}
+
+	}
+
+	private static double zeta(long n, double theta) {
+		double sum = 0;
+		for (long i = 1; i <= n; i++) {
+			sum += 1 / Math.pow(i, theta);
+		}
+		return sum;
+	}
+
+	/**
+	 * Reads records for one thread and records the latency of every read.
+	 */
+	private void readRecords(AccessMethod accessMethod, RecordIndexGenerator generator, FileChannel channel,
+		MappedByteBuffer[] regions, MeasuresManager.Samples samples) throws IOException {
+		switch (accessMethod) {
+			case STREAM_WITH_SKIP:
+				byte[] record = new byte[recordSize];
+				try (InputStream is = new FileInputStream(file)) {
+					long currentPosition = 0;
+					for (int i = 0; i < numberOfReadsPerThread; i++) {
+						long position = generator.nextIndex() * recordSize;
+						long startTime = System.nanoTime();
+						// skip and read may do less than asked: we loop until the record is read
+						long bytesToSkip = position - currentPosition;
+						while (bytesToSkip != 0) {
+							long skippedBytes = is.skip(bytesToSkip);
+							if (skippedBytes == 0) {
+								throw new IOException("Cannot skip to position " + position + " in " + file);
+							}
+							bytesToSkip -= skippedBytes;
+						}
+						int offset = 0;
+						while (offset < recordSize) {
+							int readBytes = is.read(record, offset, recordSize - offset);
+							if (readBytes == -1) {
+								throw new EOFException("Unexpected end of " + file + " at position " + (position + offset));
+							}
+							offset += readBytes;
+						}
+						samples.record(System.nanoTime() - startTime, recordSize);
+						currentPosition = position + recordSize;
+					}
+				}
+				break;
+			case POSITIONAL_FILE_CHANNEL:
+				ByteBuffer buffer = ByteBuffer.allocateDirect(recordSize);
+				for (int i = 0; i < numberOfReadsPerThread; i++) {
+					long position = generator.nextIndex() * recordSize;
+					long startTime = System.nanoTime();
+					buffer.clear();
+					while (buffer.hasRemaining()) {
+						if (channel.read(buffer, position + buffer.position()) == -1) {
+							throw new EOFException("Unexpected end of " + file + " at position " + (position + buffer.position()));
+						}
+					}
+					samples.record(System.nanoTime() - startTime, recordSize);
+				}
+				break;
+			case MEMORY_MAPPED_FILE:
+				byte[] copy = new byte[recordSize];
+				// every thread works on its own views of the regions, since a buffer has a position
+				ByteBuffer[] views = new ByteBuffer[regions.length];
+				for (int r = 0; r < regions.length; r++) {
+					views[r] = regions[r].duplicate();
+				}
+				for (int i = 0; i < numberOfReadsPerThread; i++) {
+					long position = generator.nextIndex() * recordSize;
+					long startTime = System.nanoTime();
+					ByteBuffer view = views[(int) (position / MAPPED_REGION_SIZE)];
+					view.position((int) (position % MAPPED_REGION_SIZE));
+					view.get(copy, 0, recordSize);
+					samples.record(System.nanoTime() - startTime, recordSize);
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Maps the file in regions of MAPPED_REGION_SIZE bytes. Every region overlaps the next one by one
+	 * record, so that every record can be read from a single region.
+	 */
+	private MappedByteBuffer[] mapRegions(FileChannel channel) throws IOException {
+		long fileSize = channel.size();
+		int numberOfRegions = (int) ((fileSize + MAPPED_REGION_SIZE - 1) / MAPPED_REGION_SIZE);
+		MappedByteBuffer[] regions = new MappedByteBuffer[numberOfRegions];
+		for (int r = 0; r < numberOfRegions; r++) {
+			long regionStart = r * MAPPED_REGION_SIZE;
+			regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(MAPPED_REGION_SIZE + recordSize, fileSize - regionStart));
+		}
+		return regions;
+	}
+
+	/**
+	 * Runs one configuration with numberOfThreads concurrent threads, and logs the IOPS and latencies.
+	 */
+	public void run(final AccessPattern accessPattern, final AccessMethod accessMethod, int numberOfThreads) throws IOException, InterruptedException, ExecutionException {
+		if (accessPattern == AccessPattern.ZIPFIAN) {
+			// before the threads are started, so that they all see the constants
+			computeZipfianConstants();
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final MappedByteBuffer[] regions = (accessMethod == AccessMethod.MEMORY_MAPPED_FILE) ? mapRegions(channel) : null;
+			List<Future<MeasuresManager>> futures = new ArrayList<>();
+			for (int t = 0; t < numberOfThreads; t++) {
+				final int threadIndex = t;
+				futures.add(executor.submit(new Callable<MeasuresManager>() {
+					@Override
+					public MeasuresManager call() throws Exception {
+						// MeasuresManager is not thread-safe, so every thread has its own
+						MeasuresManager threadMeasures = new MeasuresManager();
+						RecordIndexGenerator generator = new RecordIndexGenerator(accessPattern, threadIndex);
+						startSignal.await();
+						readRecords(accessMethod, generator, channel, regions, threadMeasures.getSamples("READ"));
+						return threadMeasures;
+					}
+				}));
+			}
+
+			long startTime = System.nanoTime();
+			startSignal.countDown();
+			MeasuresManager measures = new MeasuresManager();
+			for (Future<MeasuresManager> future : futures) {
+				measures.merge(future.get());
+			}
+			long duration = System.nanoTime() - startTime;
+
+			MeasureStatistics s = measures.getSamples("READ").computeStatistics();
+			LOG.log(Level.INFO, String.format(Locale.ROOT, "%-8s %-24s %2d threads: %10.0f IOPS  latency (us) p50 %8.2f  p90 %8.2f  p99 %8.2f  p99.9 %9.2f  max %10.2f",
+				accessPattern, accessMethod, numberOfThreads, s.getNumberOfSamples() / (duration / 1e9),
+				s.getP50() / 1e3, s.getP90() / 1e3, s.getP99() / 1e3, s.getP999() / 1e3, s.getMax() / 1e3));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param args [file] [file size] [record size] [number of reads per thread] [stride (in records)] [max number of threads]
+	 */
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s %n");
+
+		File file = new File(args.length > 0 ? args[0] : DEFAULT_FILENAME);
+		long fileSize = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_FILE_SIZE;
+		int recordSize = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RECORD_SIZE;
+		int numberOfReadsPerThread = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_NUMBER_OF_READS_PER_THREAD;
+		int stride = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_STRIDE;
+
+		// the file is generated once and kept, since it can be very large
+		if (file.length() < fileSize) {
+			LOG.log(Level.INFO, "Generating {0} ({1} bytes)...", new Object[]{file, fileSize});
+			new BufferedIOBenchmark(new Timer()).writeTestFile(file, IOStrategy.BlockByBlockWithFileChannelAndDirectBuffer, fileSize, 1024 * 1024);
+		}
+
+		RandomReadBenchmark benchmark = new RandomReadBenchmark(file, recordSize, numberOfReadsPerThread, stride);
+		int maxNumberOfThreads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		LOG.log(Level.INFO, "*** BENCHMARKING RANDOM READS ({0} records of {1} bytes, {2} reads per thread)", new Object[]{file.length() / recordSize, recordSize, numberOfReadsPerThread});
+		for (AccessPattern accessPattern : AccessPattern.values()) {
+			for (AccessMethod accessMethod : AccessMethod.values()) {
+				for (int numberOfThreads = 1; numberOfThreads <= maxNumberOfThreads; numberOfThreads *= 2) {
+					benchmark.run(accessPattern, accessMethod, numberOfThreads);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package ch.heigvd.res.io;
+
+import ch.heigvd.res.io.BufferedIOBenchmark.IOStrategy;
+import ch.heigvd.res.io.util.BenchmarkResult;
+import ch.heigvd.res.io.util.ResultsStore;
+import ch.heigvd.res.io.util.Timer;
+import ch.heigvd.res.io.util.WelchTTest;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This program keeps the results of the IO benchmarks, and detects performance
+ * regressions (e.g. after an upgrade of the JVM or of the kernel). It has two modes:
+ * 
+ *   run [results file] [run id]: runs the block by block strategies of
+ *   BufferedIOBenchmark several times, and appends the throughput of every
+ *   repetition, with the metadata of the run (JVM, CPU, file system), to the
+ *   results file.
+ * 
+ *   compare [baseline file] [current file] [threshold in %]: compares the last run
+ *   of the current file with the last run of the baseline file. For every
+ *   configuration, it tests whether the throughput has dropped with Welch's t-test.
+ *   A configuration has regressed if the drop is larger than the threshold AND
+ *   significant (p-value below 0.05). The program then exits with status 1.
+ * 
+ * @author Olivier Liechti
+ */
+public class RegressionDetector {
+
+	static final Logger LOG = Logger.getLogger(RegressionDetector.class.getName());
+
+	final static String DEFAULT_RESULTS_FILENAME = "benchmark-results.csv";
+	final static String TEST_FILENAME = "regression-data.bin";
+	final static long NUMBER_OF_BYTES = 1024 * 1024 * 64;
+	final static int[] BLOCK_SIZES = {4096, 65536};
+	final static int NUMBER_OF_REPETITIONS = 5;
+	final static double DEFAULT_THRESHOLD_IN_PERCENT = 5;
+	final static double SIGNIFICANCE_LEVEL = 0.05;
+
+	/**
+	 * Runs every configuration NUMBER_OF_REPETITIONS times and returns the results.
+	 */
+	static List<BenchmarkResult> runBenchmarks(String runId, File directory) throws IOException {
+		String jvm = System.getProperty("java.vm.name") + " " + System.getProperty("java.version");
+		String cpu = cpuDescription();
+		File file = new File(directory, TEST_FILENAME);
+		String fileSystem = fileSystemDescription(directory);
+		long timestamp = System.currentTimeMillis();
+		LOG.log(Level.INFO, "Run {0} on {1}, {2}, {3}", new Object[]{runId, jvm, cpu, fileSystem});
+
+		Timer timer = new Timer();
+		BufferedIOBenchmark benchmark = new BufferedIOBenchmark(timer);
+		List<BenchmarkResult> results = new ArrayList<>();
+		try {
+			for (IOStrategy ioStrategy : EnumSet.range(IOStrategy.BlockByBlockWithoutBufferedStream, IOStrategy.BlockByBlockWithAsynchronousFileChannel)) {
+				for (int blockSize : BLOCK_SIZES) {
+					for (int repetition = 0; repetition < NUMBER_OF_REPETITIONS; repetition++) {
+						timer.start();
+						benchmark.writeTestFile(file, ioStrategy, NUMBER_OF_BYTES, blockSize);
+						results.add(new BenchmarkResult(runId, timestamp, jvm, cpu, fileSystem, "WRITE", ioStrategy.name(), blockSize,
+							NUMBER_OF_BYTES, repetition, toMBps(NUMBER_OF_BYTES, timer.takeSection().getElapsedTimeInNs())));
+						long numberOfBytesRead = benchmark.readTestFile(file, ioStrategy, blockSize);
+						results.add(new BenchmarkResult(runId, timestamp, jvm, cpu, fileSystem, "READ", ioStrategy.name(), blockSize,
+							NUMBER_OF_BYTES, repetition, toMBps(numberOfBytesRead, timer.takeSection().getElapsedTimeInNs())));
+					}
+					LOG.log(Level.INFO, "  > {0} {1} done", new Object[]{ioStrategy, blockSize});
+				}
+			}
+		} finally {
+			file.delete();
+		}
+		return results;
+	}
+
+	/**
+	 * Compares the last run of current with the last run of baseline, logs a report and returns the
+	 * number of configurations that have regressed.
+	 */
+	static int compare(List<BenchmarkResult> baseline, List<BenchmarkResult> current, double thresholdInPercent) {
+		Map<String, double[]> baselineThroughputs = throughputsByConfiguration(lastRun(baseline));
+		Map<String, double[]> currentThroughputs = throughputsByConfiguration(lastRun(current));
+
+		int numberOfRegressions = 0;
+		LOG.log(Level.INFO, String.format(Locale.ROOT, "%-62s %12s %12s %8s %8s  %s", "configuration", "baseline", "current", "change", "p-value", "verdict"));
+		for (Map.Entry<String, double[]> entry : currentThroughputs.entrySet()) {
+			double[] baselineValues = baselineThroughputs.get(entry.getKey());
+			if (baselineValues == null) {
+				LOG.log(Level.INFO, String.format(Locale.ROOT, "%-62s %12s", entry.getKey(), "no baseline"));
+				continue;
+			}
+			double baselineMean = WelchTTest.mean(baselineValues);
+			double currentMean = WelchTTest.mean(entry.getValue());
+			double changeInPercent = (currentMean - baselineMean) / baselineMean * 100;
+			double pValue = WelchTTest.oneSidedPValue(baselineValues, entry.getValue());
+			boolean regression = (-changeInPercent > thresholdInPercent) && (pValue < SIGNIFICANCE_LEVEL);
+			if (regression) {
+				numberOfRegressions++;
+			}
+			LOG.log(Level.INFO, String.format(Locale.ROOT, "%-62s %7.1f MB/s %7.1f MB/s %+7.1f%% %8.4f  %s", entry.getKey(),
+				baselineMean, currentMean, changeInPercent, pValue, regression ? "REGRESSION" : "ok"));
+		}
+		return numberOfRegressions;
+	}
+
+	private static List<BenchmarkResult> lastRun(List<BenchmarkResult> results) {
+		BenchmarkResult last = null;
+		for (BenchmarkResult result : results) {
+			if (last == null || result.getTimestamp() > last.getTimestamp()) {
+				last = result;
+			}
+		}
+		List<BenchmarkResult> lastRun = new ArrayList<>();
+		for (BenchmarkResult result : results) {
+			if (last != null && result.getRunId().equals(last.getRunId()) && result.getTimestamp() == last.getTimestamp()) {
+				lastRun.add(result);
+			}
+		}
+		return lastRun;
+	}
+
+	private static Map<String, double[]> throughputsByConfiguration(List<BenchmarkResult> results) {
+		Map<String, List<Double>> lists = new LinkedHashMap<>();
+		for (BenchmarkResult result : results) {
+			if (!lists.containsKey(result.getConfiguration())) {
+				lists.put(result.getConfiguration(), new ArrayList<Double>());
+			}
+			lists.get(result.getConfiguration()).add(result.getThroughputInMBps());
+		}
+		Map<String, double[]> throughputs = new LinkedHashMap<>();
+		for (Map.Entry<String, List<Double>> entry : lists.entrySet()) {
+			double[] values = new double[entry.getValue().size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = entry.getValue().get(i);
+			}
+			throughputs.put(entry.getKey(), values);
+		}
+		return throughputs;
+	}
+
+	private static String cpuDescription() {
+		String description = System.getProperty("os.arch") + " x" + Runtime.getRuntime().availableProcessors();
+		File cpuInfo = new File("/proc/cpuinfo");
+		if (cpuInfo.canRead()) {
+			try (BufferedReader reader = new BufferedReader(new FileReader(cpuInfo))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.startsWith("model name")) {
+						return description + " " + line.substring(line.indexOf(':') + 1).trim();
+					}
+				}
+			} catch (IOException ex) {
+				LOG.log(Level.WARNING, "Cannot read /proc/cpuinfo", ex);
+			}
+		}
+		return description;
+	}
+
+	private static String fileSystemDescription(File directory) throws IOException {
+		FileStore store = Files.getFileStore(directory.toPath());
+		return store.type() + " " + store.name() + " on " + System.getProperty("os.name") + " " + System.getProperty("os.version");
+	}
+
+	private static double toMBps(long numberOfBytes, long durationInNs) {
+		return (numberOfBytes / (1024.0 * 1024.0)) / (durationInNs / 1e9);
+	}
+
+	/**
+	 * @param args run [results file] [run id] | compare [baseline file] [current file] [threshold in %]
+	 */
+	public static void main(String[] args) throws IOException {
+		System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s %n");
+
+		String mode = args.length > 0 ? args[0] : "run";
+		if (mode.equals("run")) {
+			File resultsFile = new File(args.length > 1 ? args[1] : DEFAULT_RESULTS_FILENAME);
+			String runId = args.length > 2 ? args[2] : "run-" + System.currentTimeMillis();
+			File directory = resultsFile.getAbsoluteFile().getParentFile();
+			new ResultsStore(resultsFile).append(runBenchmarks(runId, directory));
+			LOG.log(Level.INFO, "The results have been appended to {0}", resultsFile);
+		} else if (mode.equals("compare") && args.length > 2) {
+			List<BenchmarkResult> baseline = new ResultsStore(new File(args[1])).load();
+			List<BenchmarkResult> current = new ResultsStore(new File(args[2])).load();
+			double thresholdInPercent = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_THRESHOLD_IN_PERCENT;
+			int numberOfRegressions = compare(baseline, current, thresholdInPercent);
+			if (numberOfRegressions > 0) {
+				LOG.log(Level.SEVERE, "{0} configuration(s) have regressed by more than {1}%", new Object[]{numberOfRegressions, thresholdInPercent});
+				System.exit(1);
+			}
+			LOG.log(Level.INFO, "No regression");
+		} else {
+			LOG.log(Level.SEVERE, "Usage: run [results file] [run id] | compare <baseline file> <current file> [threshold in %]");
+			System.exit(2);
+		}
+	}
+
+}
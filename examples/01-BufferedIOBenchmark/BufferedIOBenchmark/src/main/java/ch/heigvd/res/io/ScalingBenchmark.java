@@ -0,0 +1,264 @@
+package ch.heigvd.res.io;
+
+import ch.heigvd.res.io.BufferedIOBenchmark.IOStrategy;
+import ch.heigvd.res.io.util.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This program measures how the IO throughput scales when several threads write
+ * and read at the same time, with 1 up to N threads (N being the number of cores).
+ * 
+ * In the "separate files" mode, every thread writes and reads its own file, with
+ * the same code (and IOStrategy) as BufferedIOBenchmark. In the "shared file" mode,
+ * all threads work on one file, which is split in disjoint regions; every thread
+ * writes and reads its region with positional FileChannel operations, which do not
+ * depend on (nor modify) a shared file position.
+ * 
+ * For every number of threads, the program reports the aggregate throughput (total
+ * number of bytes divided by the time between the start of the first thread and the
+ * end of the last one) and the fairness between the threads: the minimum and maximum
+ * throughput of a single thread, and Jain's fairness index (1 when all threads get
+ * the same throughput, 1/N when a single thread gets everything).
+ * 
+ * @author Olivier Liechti
+ */
+public class ScalingBenchmark {
+
+	static final Logger LOG = Logger.getLogger(ScalingBenchmark.class.getName());
+
+	final static String FILENAME_PREFIX = "scaling-data"; // we will write and read test files at this location
+	final static long DEFAULT_NUMBER_OF_BYTES_PER_THREAD = 1024 * 1024 * 64;
+	final static int DEFAULT_BLOCK_SIZE = 65536;
+
+	private final IOStrategy ioStrategy;
+	private final int blockSize;
+	private final long numberOfBytesPerThread;
+
+	public ScalingBenchmark(IOStrategy ioStrategy, int blockSize, long numberOfBytesPerThread) {
+		this.ioStrategy = ioStrategy;
+		this.blockSize = blockSize;
+		this.numberOfBytesPerThread = numberOfBytesPerThread;
+	}
+
+	/**
+	 * The result of one thread: the number of bytes it has processed and the time it took
+	 */
+	private static class ThreadResult {
+
+		private final long numberOfBytes;
+		private final long startTime;
+		private final long endTime;
+
+		ThreadResult(long numberOfBytes, long startTime, long endTime) {
+			this.numberOfBytes = numberOfBytes;
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+
+		double getThroughputInMBps() {
+			return toMBps(numberOfBytes, endTime - startTime);
+		}
+
+	}
+
+	/**
+	 * A task executed by every thread. The index identifies the thread, hence its file or region.
+	 */
+	private interface ThreadTask {
+
+		long execute(int threadIndex) throws IOException;
+
+	}
+
+	/**
+	 * Runs the benchmark in both modes, for 1 up to maxNumberOfThreads threads.
+	 */
+	public void run(int maxNumberOfThreads) throws IOException, InterruptedException, ExecutionException {
+		for (int numberOfThreads = 1; numberOfThreads <= maxNumberOfThreads; numberOfThreads++) {
+			runWithSeparateFiles(numberOfThreads);
+		}
+		for (int numberOfThreads = 1; numberOfThreads <= maxNumberOfThreads; numberOfThreads++) {
+			runWithSharedFile(numberOfThreads);
+		}
+	}
+
+	/**
+	 * Every thread writes, then reads its own file with the IOStrategy of the benchmark.
+	 */
+	private void runWithSeparateFiles(int numberOfThreads) throws IOException, InterruptedException, ExecutionException {
+		final File[] files = new File[numberOfThreads];
+		for (int i = 0; i < numberOfThreads; i++) {
+			files[i] = new File(FILENAME_PREFIX + "-" + ioStrategy + "-" + i + ".bin");
+		}
+		try {
+			report("WRITE separate files " + ioStrategy, numberOfThreads, runConcurrently(numberOfThreads, new ThreadTask() {
+				@Override
+				public long execute(int threadIndex) throws IOException {
+					new BufferedIOBenchmark(new Timer()).writeTestFile(files[threadIndex], ioStrategy, numberOfBytesPerThread, blockSize);
+					return numberOfBytesPerThread;
+				}
+			}));
+			report("READ separate files " + ioStrategy, numberOfThreads, runConcurrently(numberOfThreads, new ThreadTask() {
+				@Override
+				public long execute(int threadIndex) throws IOException {
+					return new BufferedIOBenchmark(new Timer()).readTestFile(files[threadIndex], ioStrategy, blockSize);
+				}
+			}));
+		} finally {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * All threads write, then read disjoint regions of the same file, with positional FileChannel
+	 * operations and one direct buffer per thread.
+	 */
+	private void runWithSharedFile(int numberOfThreads) throws IOException, InterruptedException, ExecutionException {
+		File file = new File(FILENAME_PREFIX + "-shared.bin");
+		// we preallocate the file, so that the threads do not have to extend it concurrently
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(numberOfBytesPerThread * numberOfThreads);
+		}
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			report("WRITE shared file (positional FileChannel)", numberOfThreads, runConcurrently(numberOfThreads, new ThreadTask() {
+				@Override
+				public long execute(int threadIndex) throws IOException {
+					return writeRegion(channel, threadIndex * numberOfBytesPerThread);
+				}
+			}));
+			report("READ shared file (positional FileChannel)", numberOfThreads, runConcurrently(numberOfThreads, new ThreadTask() {
+				@Override
+				public long execute(int threadIndex) throws IOException {
+					return readRegion(channel, threadIndex * numberOfBytesPerThread);
+				}
+			}));
+		} finally {
+			file.delete();
+		}
+	}
+
+	private long writeRegion(FileChannel channel, long regionStart) throws IOException {
+		ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+		long position = regionStart;
+		long regionEnd = regionStart + numberOfBytesPerThread;
+		while (position < regionEnd) {
+			block.clear();
+			block.limit((int) Math.min(blockSize, regionEnd - position));
+			for (int j = 0; j < block.limit(); j++) {
+				block.put(j, (byte) 'b');
+			}
+			while (block.hasRemaining()) {
+				position += channel.write(block, position);
+			}
+		}
+		return position - regionStart;
+	}
+
+	private long readRegion(FileChannel channel, long regionStart) throws IOException {
+		ByteBuffer block = ByteBuffer.allocateDirect(blockSize);
+		long position = regionStart;
+		long regionEnd = regionStart + numberOfBytesPerThread;
+		while (position < regionEnd) {
+			block.clear();
+			block.limit((int) Math.min(blockSize, regionEnd - position));
+			int bytesRead = channel.read(block, position);
+			if (bytesRead == -1) {
+				break;
+			}
+			position += bytesRead;
+		}
+		return position - regionStart;
+	}
+
+	/**
+	 * Executes the task in numberOfThreads threads, which all start at the same time.
+	 */
+	private List<ThreadResult> runConcurrently(int numberOfThreads, final ThreadTask task) throws InterruptedException, ExecutionException {
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		final CountDownLatch startSignal = new CountDownLatch(1);
+		try {
+			List<Future<ThreadResult>> futures = new ArrayList<>();
+			for (int i = 0; i < numberOfThreads; i++) {
+				final int threadIndex = i;
+				futures.add(executor.submit(new Callable<ThreadResult>() {
+					@Override
+					public ThreadResult call() throws Exception {
+						startSignal.await();
+						long startTime = System.nanoTime();
+						long numberOfBytes = task.execute(threadIndex);
+						return new ThreadResult(numberOfBytes, startTime, System.nanoTime());
+					}
+				}));
+			}
+			startSignal.countDown();
+			List<ThreadResult> results = new ArrayList<>();
+			for (Future<ThreadResult> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void report(String operation, int numberOfThreads, List<ThreadResult> results) {
+		long totalBytes = 0;
+		long firstStart = Long.MAX_VALUE;
+		long lastEnd = Long.MIN_VALUE;
+		double minThroughput = Double.MAX_VALUE;
+		double maxThroughput = 0;
+		double sum = 0;
+		double sumOfSquares = 0;
+		for (ThreadResult result : results) {
+			totalBytes += result.numberOfBytes;
+			firstStart = Math.min(firstStart, result.startTime);
+			lastEnd = Math.max(lastEnd, result.endTime);
+			double throughput = result.getThroughputInMBps();
+			minThroughput = Math.min(minThroughput, throughput);
+			maxThroughput = Math.max(maxThroughput, throughput);
+			sum += throughput;
+			sumOfSquares += throughput * throughput;
+		}
+		double jainIndex = (sum * sum) / (results.size() * sumOfSquares);
+		LOG.log(Level.INFO, String.format(Locale.ROOT, "%-45s %2d threads: aggregate %9.1f MB/s, per thread min %8.1f / max %8.1f MB/s, fairness %.3f",
+			operation, numberOfThreads, toMBps(totalBytes, lastEnd - firstStart), minThroughput, maxThroughput, jainIndex));
+	}
+
+	private static double toMBps(long numberOfBytes, long durationInNs) {
+		return (numberOfBytes / (1024.0 * 1024.0)) / (durationInNs / 1e9);
+	}
+
+	/**
+	 * @param args [IOStrategy] [block size] [number of bytes per thread] [max number of threads]
+	 */
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s %n");
+
+		IOStrategy ioStrategy = args.length > 0 ? IOStrategy.valueOf(args[0]) : IOStrategy.BlockByBlockWithBufferedStream;
+		int blockSize = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BLOCK_SIZE;
+		long numberOfBytesPerThread = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_NUMBER_OF_BYTES_PER_THREAD;
+		int maxNumberOfThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		LOG.log(Level.INFO, "*** SCALING FROM 1 TO {0} THREADS ({1} bytes per thread, block size: {2})", new Object[]{maxNumberOfThreads, numberOfBytesPerThread, blockSize});
+		new ScalingBenchmark(ioStrategy, blockSize, numberOfBytesPerThread).run(maxNumberOfThreads);
+	}
+
+}
@@ -0,0 +1,107 @@
+package ch.heigvd.res.io.benchmarks;
+
+import ch.heigvd.res.io.BufferedIOBenchmark;
+import ch.heigvd.res.io.BufferedIOBenchmark.IOStrategy;
+import ch.heigvd.res.io.util.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This JMH benchmark measures the block by block strategies of BufferedIOBenchmark,
+ * for every combination of block size and file size. Contrary to the main method of
+ * BufferedIOBenchmark, which times every configuration once, JMH warms up the JIT,
+ * repeats the measurements in several forked JVMs and reports the error margins.
+ * 
+ * Every invocation writes (or reads) one complete file. The primary score is thus
+ * given in files per second (or seconds per file) and the "megabytes" secondary
+ * score gives the throughput in MB/s.
+ * 
+ * The complete matrix takes a long time to run. You can restrict it from the
+ * command line, for instance:
+ * 
+ *   java -jar target/benchmarks.jar BlockByBlockBenchmark -p blockSize=4096,65536 -p fileSize=10485760
+ * 
+ * Note that the file read by the read benchmark has just been written, so most of
+ * the reads are served by the OS page cache and not by the device.
+ * 
+ * @author Olivier Liechti
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+@State(Scope.Benchmark)
+public class BlockByBlockBenchmark {
+
+	@Param({"BlockByBlockWithBufferedStream", "BlockByBlockWithoutBufferedStream",
+		"BlockByBlockWithFileChannelAndHeapBuffer", "BlockByBlockWithFileChannelAndDirectBuffer",
+		"BlockByBlockWithMemoryMappedFile", "BlockByBlockWithAsynchronousFileChannel"})
+	public IOStrategy ioStrategy;
+
+	@Param({"5", "50", "500", "4096", "8192", "65536", "1048576"})
+	public int blockSize;
+
+	@Param({"1048576", "10485760", "104857600"})
+	public long fileSize;
+
+	/**
+	 * Only used by the memory mapped file strategy
+	 */
+	@Param({"67108864"})
+	public long mappingWindowSize;
+
+	/**
+	 * Only used by the asynchronous file channel strategy
+	 */
+	@Param({"8"})
+	public int queueDepth;
+
+	private BufferedIOBenchmark benchmark;
+	private File fileToWrite;
+	private File fileToRead;
+
+	@Setup(Level.Trial)
+	public void createTestFiles() throws IOException {
+		benchmark = new BufferedIOBenchmark(new Timer());
+		benchmark.setMappingWindowSize(mappingWindowSize);
+		benchmark.setQueueDepth(queueDepth);
+		fileToWrite = File.createTempFile("jmh-write-", ".bin");
+		fileToRead = File.createTempFile("jmh-read-", ".bin");
+		benchmark.writeTestFile(fileToRead, IOStrategy.BlockByBlockWithBufferedStream, fileSize, 8192);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTestFiles() {
+		fileToWrite.delete();
+		fileToRead.delete();
+	}
+
+	@Benchmark
+	public void write(ThroughputCounters counters) throws IOException {
+		benchmark.writeTestFile(fileToWrite, ioStrategy, fileSize, blockSize);
+		counters.addBytes(fileSize);
+	}
+
+	@Benchmark
+	public long read(ThroughputCounters counters) throws IOException {
+		long totalBytes = benchmark.readTestFile(fileToRead, ioStrategy, blockSize);
+		counters.addBytes(totalBytes);
+		return totalBytes;
+	}
+
+}
@@ -0,0 +1,76 @@
+package ch.heigvd.res.io.benchmarks;
+
+import ch.heigvd.res.io.BufferedIOBenchmark;
+import ch.heigvd.res.io.BufferedIOBenchmark.IOStrategy;
+import ch.heigvd.res.io.util.Timer;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This JMH benchmark measures the byte by byte strategies of BufferedIOBenchmark.
+ * They do not use a block size and they are very slow without a buffered stream
+ * (one system call per byte), so they are kept apart from BlockByBlockBenchmark and
+ * measured on smaller files.
+ * 
+ * @author Olivier Liechti
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(3)
+@State(Scope.Benchmark)
+public class ByteByByteBenchmark {
+
+	@Param({"ByteByByteWithBufferedStream", "ByteByByteWithoutBufferedStream"})
+	public IOStrategy ioStrategy;
+
+	@Param({"102400", "1048576"})
+	public long fileSize;
+
+	private BufferedIOBenchmark benchmark;
+	private File fileToWrite;
+	private File fileToRead;
+
+	@Setup(Level.Trial)
+	public void createTestFiles() throws IOException {
+		benchmark = new BufferedIOBenchmark(new Timer());
+		fileToWrite = File.createTempFile("jmh-write-", ".bin");
+		fileToRead = File.createTempFile("jmh-read-", ".bin");
+		benchmark.writeTestFile(fileToRead, IOStrategy.BlockByBlockWithBufferedStream, fileSize, 8192);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTestFiles() {
+		fileToWrite.delete();
+		fileToRead.delete();
+	}
+
+	@Benchmark
+	public void write(ThroughputCounters counters) throws IOException {
+		benchmark.writeTestFile(fileToWrite, ioStrategy, fileSize, 0);
+		counters.addBytes(fileSize);
+	}
+
+	@Benchmark
+	public long read(ThroughputCounters counters) throws IOException {
+		long totalBytes = benchmark.readTestFile(fileToRead, ioStrategy, 0);
+		counters.addBytes(totalBytes);
+		return totalBytes;
+	}
+
+}
@@ -0,0 +1,34 @@
+package ch.heigvd.res.io.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * JMH secondary metric used by our benchmarks to report the number of megabytes
+ * processed. In throughput mode, JMH reports it in MB per time unit (i.e. MB/s
+ * with the time unit used by our benchmarks). In average time mode, it is
+ * reported in time units per MB.
+ *
+ * @author Olivier Liechti
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class ThroughputCounters {
+
+	private static final double MEGABYTE = 1024 * 1024;
+
+	public double megabytes;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		megabytes = 0;
+	}
+
+	void addBytes(long numberOfBytes) {
+		megabytes += numberOfBytes / MEGABYTE;
+	}
+
+}
@@ -0,0 +1,34 @@
+package ch.heigvd.res.io.util;
+
+import lombok.Data;
+
+/**
+ * The throughput measured for one repetition of one benchmark configuration,
+ * together with the metadata of the run (JVM, CPU and file system), so that
+ * results stored in a file can be compared with the results of later runs.
+ *
+ * @author Olivier Liechti
+ */
+@Data
+public class BenchmarkResult {
+
+	private final String runId;
+	private final long timestamp;
+	private final String jvm;
+	private final String cpu;
+	private final String fileSystem;
+	private final String operation;
+	private final String strategy;
+	private final int blockSize;
+	private final long fileSizeInBytes;
+	private final int repetition;
+	private final double throughputInMBps;
+
+	/**
+	 * Returns the key of the benchmark configuration: results with the same key can be compared
+	 */
+	public String getConfiguration() {
+		return operation + " " + strategy + " " + blockSize + " " + fileSizeInBytes;
+	}
+
+}
@@ -0,0 +1,42 @@
+package ch.heigvd.res.io.util;
+
+import lombok.Data;
+
+/**
+ * The statistics computed by the MeasuresManager for one operation type. All
+ * durations are in nanoseconds.
+ *
+ * @author Olivier Liechti
+ */
+@Data
+public class MeasureStatistics {
+
+	private final String operationType;
+	private final int numberOfSamples;
+	private final long min;
+	private final long p50;
+	private final long p90;
+	private final long p99;
+	private final long p999;
+	private final long max;
+	private final long totalDuration;
+	private final long totalNumberOfBytes;
+
+	/**
+	 * Returns the throughput in MB/s, based on the time spent in the measured operations only
+	 */
+	public double getThroughputInMBps() {
+		if (totalDuration == 0) {
+			return Double.NaN;
+		}
+		return (totalNumberOfBytes / (1024.0 * 1024.0)) / (totalDuration / 1e9);
+	}
+
+	public double getOperationsPerSecond() {
+		if (totalDuration == 0) {
+			return Double.NaN;
+		}
+		return numberOfSamples / (totalDuration / 1e9);
+	}
+
+}
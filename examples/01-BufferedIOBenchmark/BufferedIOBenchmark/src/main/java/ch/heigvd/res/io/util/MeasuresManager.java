@@ -1,9 +1,201 @@
 package ch.heigvd.res.io.util;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 /**
- *
+ * This class stores the durations of individual operations (e.g. every block
+ * written on a stream), grouped by operation type. The durations are recorded in
+ * primitive long arrays, so recording a sample does not allocate any object (the
+ * arrays are only reallocated when they are full, with a doubling capacity). This
+ * makes it possible to record millions of samples per operation type without
+ * disturbing the measured code with boxing and garbage collection.
+ * 
+ * The statistics (min, percentiles, max, throughput) are computed when a report is
+ * requested. They can be exported in CSV or in JSON.
+ * 
+ * This class is not thread-safe: a MeasuresManager must be used by one thread at a
+ * time.
+ * 
  * @author Olivier Liechti
  */
 public class MeasuresManager {
 
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final Map<String, Samples> samplesByOperationType = new LinkedHashMap<>();
+
+	/**
+	 * The samples recorded for one operation type. Clients should keep a reference to
+	 * this object while they record samples, rather than calling MeasuresManager.record,
+	 * which needs to look up the operation type every time.
+	 */
+	public static class Samples {
+
+		private final String operationType;
+		private long[] durations = new long[INITIAL_CAPACITY];
+		private int numberOfSamples = 0;
+		private long totalNumberOfBytes = 0;
+
+		private Samples(String operationType) {
+			this.operationType = operationType;
+		}
+
+		/**
+		 * Records the duration of one operation, which has processed numberOfBytes bytes.
+		 */
+		public void record(long durationInNanos, long numberOfBytes) {
+			if (numberOfSamples == durations.length) {
+				durations = Arrays.copyOf(durations, durations.length * 2);
+			}
+			durations[numberOfSamples++] = durationInNanos;
+			totalNumberOfBytes += numberOfBytes;
+		}
+
+		/**
+		 * Appends all the samples recorded in other samples (e.g. recorded by another thread).
+		 */
+		public void recordAll(Samples other) {
+			if (numberOfSamples + other.numberOfSamples > durations.length) {
+				durations = Arrays.copyOf(durations, Math.max(durations.length * 2, numberOfSamples + other.numberOfSamples));
+			}
+			System.arraycopy(other.durations, 0, durations, numberOfSamples, other.numberOfSamples);
+			numberOfSamples += other.numberOfSamples;
+			totalNumberOfBytes += other.totalNumberOfBytes;
+		}
+
+		public String getOperationType() {
+			return operationType;
+		}
+
+		public int getNumberOfSamples() {
+			return numberOfSamples;
+		}
+
+		/**
+		 * Computes the statistics of the samples recorded so far. This sorts a copy of the
+		 * samples, so it should not be called while measuring.
+		 */
+		public MeasureStatistics computeStatistics() {
+			long[] sorted = Arrays.copyOf(durations, numberOfSamples);
+			Arrays.sort(sorted);
+			long totalDuration = 0;
+			for (long duration : sorted) {
+				totalDuration += duration;
+			}
+			return new MeasureStatistics(operationType, numberOfSamples,
+				percentile(sorted, 0), percentile(sorted, 50), percentile(sorted, 90),
+				percentile(sorted, 99), percentile(sorted, 99.9), percentile(sorted, 100),
+				totalDuration, totalNumberOfBytes);
+		}
+
+		/**
+		 * Returns the percentile of the sorted values, using the nearest-rank method.
+		 */
+		private static long percentile(long[] sorted, double percentile) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+			return sorted[Math.max(0, rank - 1)];
+		}
+
+	}
+
+	/**
+	 * Returns the samples of an operation type, which are created on first use.
+	 */
+	public Samples getSamples(String operationType) {
+		Samples samples = samplesByOperationType.get(operationType);
+		if (samples == null) {
+			samples = new Samples(operationType);
+			samplesByOperationType.put(operationType, samples);
+		}
+		return samples;
+	}
+
+	public void record(String operationType, long durationInNanos, long numberOfBytes) {
+		getSamples(operationType).record(durationInNanos, numberOfBytes);
+	}
+
+	/**
+	 * Appends all the samples of another MeasuresManager. Since MeasuresManager is not thread-safe,
+	 * concurrent threads must record samples in their own MeasuresManager, which can be merged
+	 * once the threads are done.
+	 */
+	public void merge(MeasuresManager other) {
+		for (Samples samples : other.samplesByOperationType.values()) {
+			getSamples(samples.getOperationType()).recordAll(samples);
+		}
+	}
+
+	/**
+	 * Computes the statistics of every operation type, in the order in which the
+	 * operation types have been recorded for the first time.
+	 */
+	public List<MeasureStatistics> computeStatistics() {
+		List<MeasureStatistics> statistics = new ArrayList<>();
+		for (Samples samples : samplesByOperationType.values()) {
+			statistics.add(samples.computeStatistics());
+		}
+		return statistics;
+	}
+
+	public void exportToCsv(Writer writer) throws IOException {
+		writer.write("operationType,numberOfSamples,minInNs,p50InNs,p90InNs,p99InNs,p999InNs,maxInNs,totalDurationInNs,totalNumberOfBytes,throughputInMBps,operationsPerSecond\n");
+		for (MeasureStatistics s : computeStatistics()) {
+			writer.write(String.format(Locale.ROOT, "%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.3f,%.1f%n",
+				escapeCsv(s.getOperationType()), s.getNumberOfSamples(), s.getMin(), s.getP50(), s.getP90(),
+				s.getP99(), s.getP999(), s.getMax(), s.getTotalDuration(), s.getTotalNumberOfBytes(),
+				s.getThroughputInMBps(), s.getOperationsPerSecond()));
+		}
+		writer.flush();
+	}
+
+	public void exportToJson(Writer writer) throws IOException {
+		writer.write("[");
+		String separator = "\n";
+		for (MeasureStatistics s : computeStatistics()) {
+			writer.write(separator);
+			writer.write(String.format(Locale.ROOT, "  {\"operationType\": \"%s\", \"numberOfSamples\": %d, "
+				+ "\"minInNs\": %d, \"p50InNs\": %d, \"p90InNs\": %d, \"p99InNs\": %d, \"p999InNs\": %d, \"maxInNs\": %d, "
+				+ "\"totalDurationInNs\": %d, \"totalNumberOfBytes\": %d, \"throughputInMBps\": %s, \"operationsPerSecond\": %s}",
+				escapeJson(s.getOperationType()), s.getNumberOfSamples(), s.getMin(), s.getP50(), s.getP90(),
+				s.getP99(), s.getP999(), s.getMax(), s.getTotalDuration(), s.getTotalNumberOfBytes(),
+				toJsonNumber(s.getThroughputInMBps(), "%.3f"), toJsonNumber(s.getOperationsPerSecond(), "%.1f")));
+			separator = ",\n";
+		}
+		writer.write("\n]\n");
+		writer.flush();
+	}
+
+	private static String escapeCsv(String value) {
+		if (value.contains(",") || value.contains("\"")) {
+			return "\"" + value.replace("\"", "\"\"") + "\"";
+		}
+		return value;
+	}
+
+	/**
+	 * JSON has no NaN or Infinity, which is what we get for the rates when no time
+	 * has been measured (for instance for an operation type without samples). We
+	 * write null instead.
+	 */
+	private static String toJsonNumber(double value, String format) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return "null";
+		}
+		return String.format(Locale.ROOT, format, value);
+	}
+
+	private static String escapeJson(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
 }
@@ -0,0 +1,72 @@
+package ch.heigvd.res.io.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class stores benchmark results in a local CSV file, one line per result.
+ * New results are appended to the file, so that the file keeps the history of
+ * all runs (every run has its own run id).
+ *
+ * @author Olivier Liechti
+ */
+public class ResultsStore {
+
+	private static final String HEADER = "runId,timestamp,jvm,cpu,fileSystem,operation,strategy,blockSize,fileSizeInBytes,repetition,throughputInMBps";
+
+	private final File file;
+
+	public ResultsStore(File file) {
+		this.file = file;
+	}
+
+	public void append(List<BenchmarkResult> results) throws IOException {
+		boolean newFile = !file.exists() || file.length() == 0;
+		try (Writer writer = new FileWriter(file, true)) {
+			if (newFile) {
+				writer.write(HEADER + "\n");
+			}
+			for (BenchmarkResult r : results) {
+				writer.write(String.format(Locale.ROOT, "%s,%d,%s,%s,%s,%s,%s,%d,%d,%d,%.3f%n",
+					clean(r.getRunId()), r.getTimestamp(), clean(r.getJvm()), clean(r.getCpu()), clean(r.getFileSystem()),
+					clean(r.getOperation()), clean(r.getStrategy()), r.getBlockSize(), r.getFileSizeInBytes(),
+					r.getRepetition(), r.getThroughputInMBps()));
+			}
+		}
+	}
+
+	public List<BenchmarkResult> load() throws IOException {
+		List<BenchmarkResult> results = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.equals(HEADER)) {
+					continue;
+				}
+				String[] fields = line.split(",", -1);
+				if (fields.length != 11) {
+					throw new IOException("Invalid line in " + file + ": " + line);
+				}
+				results.add(new BenchmarkResult(fields[0], Long.parseLong(fields[1]), fields[2], fields[3], fields[4],
+					fields[5], fields[6], Integer.parseInt(fields[7]), Long.parseLong(fields[8]),
+					Integer.parseInt(fields[9]), Double.parseDouble(fields[10])));
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * The metadata may contain commas (e.g. in the name of the CPU), which we do not want to escape
+	 */
+	private static String clean(String value) {
+		return value.replace(',', ';').replace('\n', ' ');
+	}
+
+}
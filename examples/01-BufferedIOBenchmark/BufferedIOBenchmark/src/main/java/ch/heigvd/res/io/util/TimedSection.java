@@ -0,0 +1,28 @@
+package ch.heigvd.res.io.util;
+
+import lombok.Data;
+
+/**
+ * The measures taken by a Timer for one section of code. The CPU time and the
+ * allocated bytes are -1 when the JVM is not able to measure them.
+ *
+ * @author Olivier Liechti
+ */
+@Data
+public class TimedSection {
+
+	private final long elapsedTimeInNs;
+	private final long cpuTimeInNs;
+	private final long allocatedBytes;
+	private final long gcCount;
+	private final long gcTimeInMs;
+
+	public long getElapsedTimeInMs() {
+		return elapsedTimeInNs / 1_000_000;
+	}
+
+	public double getCpuTimeInMs() {
+		return cpuTimeInNs < 0 ? -1 : cpuTimeInNs / 1e6;
+	}
+
+}
@@ -1,24 +1,76 @@
 package ch.heigvd.res.io.util;
 
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
 /**
+ * This class measures sections of code. Besides the elapsed time (measured with
+ * System.nanoTime), it captures the CPU time consumed by the current thread, the
+ * number of bytes it has allocated and the garbage collections that have happened
+ * during the section. This tells whether a section is slow because it waits for
+ * IOs, because it burns CPU or because it allocates and triggers the GC.
+ * 
+ * Every benchmark must use its own instance. An instance must be started and
+ * stopped by the same thread, since the CPU time and the allocated bytes are those
+ * of the current thread. The GC counters are global to the JVM.
  *
  * @author Olivier Liechti
  */
 public class Timer {
-	
-	private static long timestamp = 0;
-	
+
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+	private boolean started = false;
+	private long startTime;
+	private long startCpuTime;
+	private long startAllocatedBytes;
+	private long startGcCount;
+	private long startGcTime;
+
 	public void start() {
-		timestamp = System.currentTimeMillis();
+		started = true;
+		startTime = System.nanoTime();
+		startCpuTime = currentThreadCpuTime();
+		startAllocatedBytes = currentThreadAllocatedBytes();
+		startGcCount = gcCount();
+		startGcTime = gcTime();
 	}
-	
-	public long takeTime() {
-		if (timestamp == 0) {
-			timestamp = System.currentTimeMillis();
+
+	/**
+	 * Returns the measures of the section that began with the last call to start (or
+	 * to takeSection), and starts a new section.
+	 */
+	public TimedSection takeSection() {
+		if (!started) {
+			start();
 		}
-		long ellapsedTime = System.currentTimeMillis() - timestamp;
-		timestamp = System.currentTimeMillis();
-	  return ellapsedTime;
+		long now = System.nanoTime();
+		long cpuTime = currentThreadCpuTime();
+		long allocatedBytes = currentThreadAllocatedBytes();
+		long gcCount = gcCount();
+		long gcTime = gcTime();
+
+		TimedSection section = new TimedSection(now - startTime,
+			(cpuTime < 0 || startCpuTime < 0) ? -1 : cpuTime - startCpuTime,
+			(allocatedBytes < 0 || startAllocatedBytes < 0) ? -1 : allocatedBytes - startAllocatedBytes,
+			gcCount - startGcCount,
+			gcTime - startGcTime);
+
+		startTime = now;
+		startCpuTime = cpuTime;
+		startAllocatedBytes = allocatedBytes;
+		startGcCount = gcCount;
+		startGcTime = gcTime;
+		return section;
+	}
+
+	/**
+	 * Returns the time elapsed (in ms) since the last call to start (or to takeTime),
+	 * and starts a new section.
+	 */
+	public long takeTime() {
+		return takeSection().getElapsedTimeInMs();
 	}
 	
 	public String display(long millis) {
@@ -30,4 +82,45 @@ public class Timer {
 		return String.format("%d min, %d sec, %d ms", minutes, seconds, milliseconds);
 	}
 
+	/**
+	 * Returns the CPU time of the current thread in ns, or -1 if the JVM cannot measure it.
+	 */
+	private static long currentThreadCpuTime() {
+		if (!THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() || !THREAD_MX_BEAN.isThreadCpuTimeEnabled()) {
+			return -1;
+		}
+		return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread, or -1 if the JVM cannot
+	 * measure it (this is only available on HotSpot based JVMs).
+	 */
+	private static long currentThreadAllocatedBytes() {
+		if (!(THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean hotspotThreadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+		if (!hotspotThreadMXBean.isThreadAllocatedMemorySupported() || !hotspotThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		return hotspotThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+
 }
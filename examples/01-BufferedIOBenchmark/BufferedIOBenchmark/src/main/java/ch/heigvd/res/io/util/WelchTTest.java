@@ -0,0 +1,122 @@
+package ch.heigvd.res.io.util;
+
+/**
+ * Welch's t-test, which tells whether the means of two samples are different when
+ * the samples may have different variances and sizes. We use it to decide whether
+ * a drop of throughput between a baseline and a new run is significant, or whether
+ * it can be explained by the noise of the measures.
+ *
+ * @author Olivier Liechti
+ */
+public class WelchTTest {
+
+	private WelchTTest() {
+	}
+
+	/**
+	 * Returns the one-sided p-value of the hypothesis "the mean of current is lower than the mean of
+	 * baseline": the probability of observing such a difference if the means were in fact equal. A
+	 * small p-value (e.g. below 0.05) means that the drop is significant.
+	 */
+	public static double oneSidedPValue(double[] baseline, double[] current) {
+		if (baseline.length < 2 || current.length < 2) {
+			throw new IllegalArgumentException("Each sample must contain at least two values");
+		}
+		double meanBaseline = mean(baseline);
+		double meanCurrent = mean(current);
+		double varianceOverN1 = variance(baseline, meanBaseline) / baseline.length;
+		double varianceOverN2 = variance(current, meanCurrent) / current.length;
+		double standardError = Math.sqrt(varianceOverN1 + varianceOverN2);
+		if (standardError == 0) {
+			return meanCurrent < meanBaseline ? 0 : 1;
+		}
+		double t = (meanBaseline - meanCurrent) / standardError;
+		double degreesOfFreedom = Math.pow(varianceOverN1 + varianceOverN2, 2)
+			/ (varianceOverN1 * varianceOverN1 / (baseline.length - 1) + varianceOverN2 * varianceOverN2 / (current.length - 1));
+
+		// P(T > t) for a Student distribution, expressed with the regularized incomplete beta function
+		double tail = 0.5 * regularizedIncompleteBeta(degreesOfFreedom / (degreesOfFreedom + t * t), degreesOfFreedom / 2, 0.5);
+		return t > 0 ? tail : 1 - tail;
+	}
+
+	public static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	private static double variance(double[] values, double mean) {
+		double sum = 0;
+		for (double value : values) {
+			sum += (value - mean) * (value - mean);
+		}
+		return sum / (values.length - 1);
+	}
+
+	/**
+	 * The regularized incomplete beta function I_x(a, b), computed with its continued fraction
+	 * (as in Numerical Recipes).
+	 */
+	private static double regularizedIncompleteBeta(double x, double a, double b) {
+		if (x <= 0) {
+			return 0;
+		}
+		if (x >= 1) {
+			return 1;
+		}
+		double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+		// the continued fraction converges quickly for x < (a + 1) / (a + b + 2), so we use the symmetry otherwise
+		if (x < (a + 1) / (a + b + 2)) {
+			return front * continuedFraction(x, a, b) / a;
+		}
+		return 1 - front * continuedFraction(1 - x, b, a) / b;
+	}
+
+	private static double continuedFraction(double x, double a, double b) {
+		final double epsilon = 1e-14;
+		final double tiny = 1e-300;
+		double c = 1;
+		double d = 1 - (a + b) * x / (a + 1);
+		d = 1 / (Math.abs(d) < tiny ? tiny : d);
+		double result = d;
+		for (int m = 1; m <= 300; m++) {
+			int m2 = 2 * m;
+			double coefficient = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+			d = 1 / nonZero(1 + coefficient * d, tiny);
+			c = nonZero(1 + coefficient / c, tiny);
+			result *= d * c;
+			coefficient = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+			d = 1 / nonZero(1 + coefficient * d, tiny);
+			c = nonZero(1 + coefficient / c, tiny);
+			double delta = d * c;
+			result *= delta;
+			if (Math.abs(delta - 1) < epsilon) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	private static double nonZero(double value, double tiny) {
+		return Math.abs(value) < tiny ? tiny : value;
+	}
+
+	/**
+	 * The logarithm of the gamma function, with the Lanczos approximation.
+	 */
+	private static double logGamma(double x) {
+		final double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+			-1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+		double y = x;
+		double tmp = x + 5.5;
+		tmp -= (x + 0.5) * Math.log(tmp);
+		double series = 1.000000000190015;
+		for (double coefficient : coefficients) {
+			series += coefficient / ++y;
+		}
+		return -tmp + Math.log(2.5066282746310005 * series / x);
+	}
+
+}
@@ -0,0 +1,227 @@
+package ch.heigvd.res.samples.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * This class removes every byte that belongs to a given set of values from a
+ * ByteBuffer, by moving the bytes to keep towards the beginning of the buffer.
+ * It is used by ByteSetFilterOutputStream and by the pipeline stages, and can
+ * be shared by several threads (it does not have any mutable state).
+ * <p>
+ * To find the bytes to drop, we do not look at the bytes one by one. We read
+ * the buffer 8 bytes at a time, as a long, and use arithmetic tricks (known as
+ * SWAR, "SIMD within a register") to check the 8 bytes at once. Runs of bytes
+ * without any match are thus skipped very quickly. This works when the set has
+ * a few values (up to 8), or when it contains all the values from 0 to n - 1
+ * (n up to 128). For other sets, we fall back to a lookup table.
+ * <p>
+ * When the bytes to drop are frequent, the runs to move are very short and
+ * calling System.arraycopy for each of them costs more than it saves. In this
+ * case, we switch to a simple loop that copies every byte and only advances the
+ * write index for the bytes that we keep (without any if statement, which the
+ * processor would often mispredict).
+ *
+ * @author Olivier Liechti
+ */
+public class ByteSetFilter {
+
+	/**
+	 * The largest set of values that we check with one SWAR test per value
+	 */
+	private static final int MAX_VALUES_FOR_SWAR = 8;
+
+	/**
+	 * When the runs between two bytes to drop are shorter than this (on average),
+	 * we stop looking for the runs and copy the bytes one by one.
+	 */
+	private static final int MIN_AVERAGE_RUN_LENGTH = 32;
+
+	/**
+	 * The number of bytes to drop that we want to see before deciding to switch
+	 */
+	private static final int MIN_MATCHES_BEFORE_SWITCHING = 4;
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	/**
+	 * kept[b & 0xFF] is 0 if the byte b must be dropped, 1 if it must be kept
+	 */
+	private final int[] kept = new int[256];
+
+	/**
+	 * Every value of the set, repeated in the 8 bytes of a long. Null if we use
+	 * the range test or the lookup table.
+	 */
+	private final long[] repeatedValues;
+
+	/**
+	 * If the set contains all the values from 0 to n - 1, n repeated in the 8
+	 * bytes of a long. 0 otherwise.
+	 */
+	private final long repeatedRangeLimit;
+
+	public ByteSetFilter(byte... bytesToDrop) {
+		Arrays.fill(kept, 1);
+		int numberOfValues = 0;
+		for (byte b : bytesToDrop) {
+			if (kept[b & 0xFF] == 1) {
+				kept[b & 0xFF] = 0;
+				numberOfValues++;
+			}
+		}
+
+		int rangeLimit = 0;
+		while (rangeLimit < 256 && kept[rangeLimit] == 0) {
+			rangeLimit++;
+		}
+		if (numberOfValues > MAX_VALUES_FOR_SWAR && rangeLimit == numberOfValues && rangeLimit <= 128) {
+			repeatedRangeLimit = rangeLimit * ONES;
+			repeatedValues = null;
+		} else if (numberOfValues <= MAX_VALUES_FOR_SWAR) {
+			repeatedRangeLimit = 0;
+			repeatedValues = new long[numberOfValues];
+			int i = 0;
+			for (int value = 0; value < 256; value++) {
+				if (kept[value] == 0) {
+					repeatedValues[i++] = value * ONES;
+				}
+			}
+		} else {
+			repeatedRangeLimit = 0;
+			repeatedValues = null;
+		}
+	}
+
+	public boolean isDropped(int b) {
+		return kept[b & 0xFF] == 0;
+	}
+
+	/**
+	 * Removes the bytes to drop from the bytes between the position and the
+	 * limit of the buffer. The bytes to keep are moved towards the position and
+	 * the limit is moved after the last byte kept.
+	 *
+	 * @return the number of bytes kept
+	 */
+	public int compact(ByteBuffer buffer) {
+		// In little endian order, the first byte is the lowest byte of the long,
+		// which is the only one that the SWAR tests always flag correctly
+		ByteOrder order = buffer.order();
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			int start = buffer.position();
+			int end = compact(buffer, start, buffer.limit());
+			buffer.limit(end);
+			return end - start;
+		} finally {
+			buffer.order(order);
+		}
+	}
+
+	private int compact(ByteBuffer buffer, int from, int to) {
+		int match = findNextMatch(buffer, from, to);
+		if (match == to) {
+			return to;
+		}
+		int keptEnd = match;
+		while (match < to) {
+			int runStart = match + 1;
+			int droppedBytes = runStart - keptEnd;
+			if (droppedBytes >= MIN_MATCHES_BEFORE_SWITCHING && droppedBytes * MIN_AVERAGE_RUN_LENGTH > runStart - from) {
+				return compactByteByByte(buffer, runStart, to, keptEnd);
+			}
+			match = findNextMatch(buffer, runStart, to);
+			int runLength = match - runStart;
+			if (runLength > 0) {
+				move(buffer, runStart, keptEnd, runLength);
+				keptEnd += runLength;
+			}
+		}
+		return keptEnd;
+	}
+
+	/**
+	 * Moves the bytes to keep between from and to towards the beginning of the
+	 * buffer, starting at index keptEnd.
+	 *
+	 * @return the index after the last byte kept
+	 */
+	private int compactByteByByte(ByteBuffer buffer, int from, int to, int keptEnd) {
+		if (buffer.hasArray()) {
+			byte[] array = buffer.array();
+			int offset = buffer.arrayOffset();
+			for (int i = offset + from; i < offset + to; i++) {
+				byte b = array[i];
+				array[offset + keptEnd] = b;
+				keptEnd += kept[b & 0xFF];
+			}
+		} else {
+			for (int i = from; i < to; i++) {
+				byte b = buffer.get(i);
+				buffer.put(keptEnd, b);
+				keptEnd += kept[b & 0xFF];
+			}
+		}
+		return keptEnd;
+	}
+
+	private static void move(ByteBuffer buffer, int from, int to, int length) {
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset();
+			System.arraycopy(buffer.array(), offset + from, buffer.array(), offset + to, length);
+		} else {
+			for (int i = 0; i < length; i++) {
+				buffer.put(to + i, buffer.get(from + i));
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the first byte to drop between from (included) and
+	 * to (excluded), or to if there is none
+	 */
+	private int findNextMatch(ByteBuffer buffer, int from, int to) {
+		int i = from;
+		if (repeatedValues != null || repeatedRangeLimit != 0) {
+			for (; i + 8 <= to; i += 8) {
+				long matches = matches(buffer.getLong(i));
+				if (matches != 0) {
+					// The lowest flagged byte is always a real match (the higher ones may not be)
+					return i + (Long.numberOfTrailingZeros(matches) >>> 3);
+				}
+			}
+		}
+		for (; i < to; i++) {
+			if (kept[buffer.get(i) & 0xFF] == 0) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Checks the 8 bytes of a word at once. The high bit of a byte of the result
+	 * is set if the corresponding byte of the word may have to be dropped.
+	 * <p>
+	 * (x - 0x0101...) & ~x & 0x8080... flags the bytes of x that are equal to 0:
+	 * subtracting 1 from a 0 byte is the only way to set its high bit when it was
+	 * not set before. Applied to word ^ (value repeated 8 times), it flags the
+	 * bytes equal to value. With (word - n repeated 8 times), it flags the bytes
+	 * smaller than n.
+	 */
+	private long matches(long word) {
+		if (repeatedValues == null) {
+			return (word - repeatedRangeLimit) & ~word & HIGH_BITS;
+		}
+		long matches = 0;
+		for (long repeatedValue : repeatedValues) {
+			long x = word ^ repeatedValue;
+			matches |= (x - ONES) & ~x & HIGH_BITS;
+		}
+		return matches;
+	}
+
+}
@@ -0,0 +1,96 @@
+package ch.heigvd.res.samples.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This output stream filter drops every byte that belongs to a given set of
+ * values (for instance the control characters) and passes the other bytes to
+ * the wrapped stream.
+ * <p>
+ * The filter does not allocate anything once it has been created. The bytes
+ * submitted by the client are copied into a buffer that belongs to the filter,
+ * the bytes to drop are removed by moving the following bytes in the same
+ * buffer (see ByteSetFilter, which checks 8 bytes at a time) and the result is
+ * written to the wrapped stream in one call.
+ *
+ * @author Olivier Liechti
+ */
+public class ByteSetFilterOutputStream extends FilterOutputStream {
+
+	public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+	private final ByteSetFilter filter;
+	private final byte[] buffer;
+	private final ByteBuffer wrappedBuffer;
+
+	private long numberOfBytesEvaluated = 0;
+	private long numberOfBytesSkipped = 0;
+	private long numberOfBytesWritten = 0;
+
+	public ByteSetFilterOutputStream(OutputStream out, byte... bytesToDrop) {
+		this(out, DEFAULT_BUFFER_SIZE, bytesToDrop);
+	}
+
+	public ByteSetFilterOutputStream(OutputStream out, int bufferSize, byte... bytesToDrop) {
+		super(out);
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("The buffer size must be positive");
+		}
+		filter = new ByteSetFilter(bytesToDrop);
+		buffer = new byte[bufferSize];
+		wrappedBuffer = ByteBuffer.wrap(buffer);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			int chunkLength = Math.min(len, buffer.length);
+			System.arraycopy(b, off, buffer, 0, chunkLength);
+			wrappedBuffer.clear().limit(chunkLength);
+			int keptBytes = filter.compact(wrappedBuffer);
+			if (keptBytes > 0) {
+				out.write(buffer, 0, keptBytes);
+			}
+			numberOfBytesEvaluated += chunkLength;
+			numberOfBytesWritten += keptBytes;
+			numberOfBytesSkipped += chunkLength - keptBytes;
+			off += chunkLength;
+			len -= chunkLength;
+		}
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		numberOfBytesEvaluated++;
+		if (!filter.isDropped(b)) {
+			out.write(b);
+			numberOfBytesWritten++;
+		} else {
+			numberOfBytesSkipped++;
+		}
+	}
+
+	public long getNumberOfBytesEvaluated() {
+		return numberOfBytesEvaluated;
+	}
+
+	public long getNumberOfBytesSkipped() {
+		return numberOfBytesSkipped;
+	}
+
+	public long getNumberOfBytesWritten() {
+		return numberOfBytesWritten;
+	}
+
+}
@@ -0,0 +1,374 @@
+package ch.heigvd.res.samples.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * This output stream filter compresses the bytes (with the deflate algorithm,
+ * in the zlib format) before passing them to the wrapped stream. It can be used
+ * in the same chain as our other filters, for instance:
+ *
+ *   new SuperstitiousFilterOutputStream(new CompressingFilterOutputStream(new FileOutputStream(...)))
+ *
+ * The data can be read back with a DecompressingFilterInputStream (or with a
+ * java.util.zip.InflaterInputStream, if no dictionary is used).
+ * <p>
+ * When the network or the disk is the bottleneck, we can spend some CPU time to
+ * send fewer bytes. To decide if it is worth it, the stream reports the
+ * compression ratio and the CPU time spent in the compressor.
+ * <p>
+ * The Deflater, its input buffer and its output buffer are created once, when
+ * the stream is created. Small writes are collected in the input buffer, so
+ * that the compressor always works on large blocks.
+ * <p>
+ * In asynchronous mode, the compression is done by a separate thread: the
+ * thread that writes to the stream only copies the bytes into a free block and
+ * gives it to the compressor thread, which compresses it and writes the result
+ * to the wrapped stream. The producer can thus prepare the next block while
+ * the previous one is being compressed and written. If the compressor thread
+ * fails, the error is thrown by the next call to write, flush or close.
+ *
+ * @author Olivier Liechti
+ */
+public class CompressingFilterOutputStream extends FilterOutputStream {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The number of input blocks in asynchronous mode
+	 */
+	private static final int NUMBER_OF_BLOCKS = 3;
+
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+	private final Deflater deflater;
+	private final byte[] outputBuffer;
+	private final AtomicLong cpuTimeInNs = new AtomicLong();
+	private volatile long numberOfBytesIn = 0;
+	private volatile long numberOfBytesOut = 0;
+
+	private byte[] inputBuffer;
+	private int inputLength = 0;
+	private boolean closed = false;
+
+	// Only used in asynchronous mode
+	private final BlockingQueue<Block> freeBlocks;
+	private final BlockingQueue<Block> filledBlocks;
+	private final Thread compressorThread;
+	private Block currentBlock;
+	private volatile IOException compressorError;
+
+	public CompressingFilterOutputStream(OutputStream out) {
+		this(out, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public CompressingFilterOutputStream(OutputStream out, int level) {
+		this(out, level, null, DEFAULT_BUFFER_SIZE, false);
+	}
+
+	/**
+	 * @param level the compression level, between 0 (no compression) and 9 (best
+	 * compression), or -1 for the default level
+	 * @param dictionary bytes that often appear in the data (may be null). The
+	 * same dictionary must be given to the DecompressingFilterInputStream.
+	 * @param bufferSize the size of the input and output buffers
+	 * @param asynchronous true to compress in a separate thread
+	 */
+	public CompressingFilterOutputStream(OutputStream out, int level, byte[] dictionary, int bufferSize, boolean asynchronous) {
+		super(out);
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("The buffer size must be positive");
+		}
+		deflater = new Deflater(level);
+		if (dictionary != null) {
+			deflater.setDictionary(dictionary);
+		}
+		outputBuffer = new byte[bufferSize];
+		if (asynchronous) {
+			freeBlocks = new ArrayBlockingQueue<>(NUMBER_OF_BLOCKS);
+			filledBlocks = new ArrayBlockingQueue<>(NUMBER_OF_BLOCKS + 1);
+			for (int i = 0; i < NUMBER_OF_BLOCKS - 1; i++) {
+				freeBlocks.add(new Block(new byte[bufferSize]));
+			}
+			currentBlock = new Block(new byte[bufferSize]);
+			inputBuffer = currentBlock.data;
+			compressorThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					compressBlocks();
+				}
+			}, "compressor");
+			compressorThread.setDaemon(true);
+			compressorThread.start();
+		} else {
+			freeBlocks = null;
+			filledBlocks = null;
+			compressorThread = null;
+			inputBuffer = new byte[bufferSize];
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		ensureOpen();
+		while (len > 0) {
+			int n = Math.min(len, inputBuffer.length - inputLength);
+			System.arraycopy(b, off, inputBuffer, inputLength, n);
+			inputLength += n;
+			off += n;
+			len -= n;
+			if (inputLength == inputBuffer.length) {
+				submitInput(Block.DATA);
+			}
+		}
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		inputBuffer[inputLength++] = (byte) b;
+		if (inputLength == inputBuffer.length) {
+			submitInput(Block.DATA);
+		}
+	}
+
+	/**
+	 * Compresses and writes all the bytes received so far, so that the reader can
+	 * decompress them. Flushing often degrades the compression ratio.
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		submitInput(Block.FLUSH);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			submitInput(Block.FINISH);
+		} finally {
+			closed = true;
+			if (compressorThread != null) {
+				compressorThread.interrupt();
+				// The compressor thread may still be in compress() (if we have been
+				// interrupted while waiting for it): it must be done with the deflater
+				// and with the wrapped stream before we release them
+				awaitCompressorThread();
+			}
+			deflater.end();
+			out.close();
+		}
+	}
+
+	private void awaitCompressorThread() {
+		boolean interrupted = false;
+		while (compressorThread.isAlive()) {
+			try {
+				compressorThread.join();
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Gives the bytes collected in the input buffer to the compressor. In
+	 * synchronous mode, we compress them immediately. In asynchronous mode, we
+	 * pass the current block to the compressor thread and take a free one. For a
+	 * flush or at the end, we first wait until the compressor thread has written
+	 * everything.
+	 */
+	private void submitInput(int type) throws IOException {
+		if (compressorThread == null) {
+			compress(inputBuffer, inputLength, type);
+			inputLength = 0;
+			return;
+		}
+		try {
+			Block block = currentBlock;
+			block.length = inputLength;
+			block.type = type;
+			block.done = type == Block.DATA ? null : new CountDownLatch(1);
+			filledBlocks.put(block);
+			inputLength = 0;
+			if (block.done != null) {
+				block.done.await();
+			}
+			if (type != Block.FINISH) {
+				currentBlock = takeFreeBlock();
+				inputBuffer = currentBlock.data;
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the compressor");
+		}
+		if (compressorError != null) {
+			throw new IOException("The compressor thread has failed", compressorError);
+		}
+	}
+
+	private Block takeFreeBlock() throws InterruptedException, IOException {
+		Block block;
+		while ( (block = freeBlocks.poll(100, TimeUnit.MILLISECONDS)) == null ) {
+			if (compressorError != null) {
+				throw new IOException("The compressor thread has failed", compressorError);
+			}
+		}
+		return block;
+	}
+
+	/**
+	 * The loop of the compressor thread
+	 */
+	private void compressBlocks() {
+		try {
+			while (true) {
+				Block block = filledBlocks.take();
+				// Once the block is back in the pool, the writer can modify it, so we
+				// have to read its type before
+				int type = block.type;
+				try {
+					if (compressorError == null) {
+						compress(block.data, block.length, type);
+					}
+				} catch (IOException ex) {
+					compressorError = ex;
+				} catch (Throwable t) {
+					// Even an Error (OutOfMemoryError...) must be reported to the writer,
+					// otherwise it would wait forever for the compressor
+					compressorError = new IOException(t);
+				} finally {
+					if (block.done != null) {
+						block.done.countDown();
+					}
+					if (type != Block.FINISH) {
+						freeBlocks.put(block);
+					}
+				}
+				if (type == Block.FINISH) {
+					return;
+				}
+			}
+		} catch (InterruptedException ex) {
+			// The stream has been closed
+		}
+	}
+
+	private void compress(byte[] data, int length, int type) throws IOException {
+		long startTime = currentThreadCpuTime();
+		deflater.setInput(data, 0, length);
+		if (type == Block.FINISH) {
+			deflater.finish();
+		}
+		int flushMode = type == Block.FLUSH ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+		while (true) {
+			int compressedBytes = deflater.deflate(outputBuffer, 0, outputBuffer.length, flushMode);
+			if (compressedBytes > 0) {
+				out.write(outputBuffer, 0, compressedBytes);
+			}
+			boolean done = type == Block.FINISH ? deflater.finished()
+				: deflater.needsInput() && compressedBytes < outputBuffer.length;
+			if (done) {
+				break;
+			}
+		}
+		numberOfBytesIn = deflater.getBytesRead();
+		numberOfBytesOut = deflater.getBytesWritten();
+		if (type != Block.DATA) {
+			out.flush();
+		}
+		cpuTimeInNs.addAndGet(currentThreadCpuTime() - startTime);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("The stream is closed");
+		}
+		if (compressorError != null) {
+			throw new IOException("The compressor thread has failed", compressorError);
+		}
+	}
+
+	private static long currentThreadCpuTime() {
+		return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes received by the compressor (the
+	 * bytes still in the input buffer are not counted)
+	 */
+	public long getNumberOfBytesIn() {
+		return numberOfBytesIn;
+	}
+
+	/**
+	 * @return the number of compressed bytes produced by the compressor
+	 */
+	public long getNumberOfBytesOut() {
+		return numberOfBytesOut;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes for every compressed byte (for
+	 * instance 4 if the compressed data is 4 times smaller)
+	 */
+	public double getCompressionRatio() {
+		long bytesOut = getNumberOfBytesOut();
+		return bytesOut == 0 ? 0 : (double) getNumberOfBytesIn() / bytesOut;
+	}
+
+	/**
+	 * @return the CPU time spent to compress the data and to write it to the
+	 * wrapped stream
+	 */
+	public long getCpuTimeInNs() {
+		return cpuTimeInNs.get();
+	}
+
+	/**
+	 * A buffer passed to the compressor thread. A FLUSH or FINISH block is
+	 * processed like a DATA block, then the compressor flushes the wrapped stream
+	 * and counts down the latch on which the writer waits.
+	 */
+	private static class Block {
+
+		private static final int DATA = 0;
+		private static final int FLUSH = 1;
+		private static final int FINISH = 2;
+
+		private final byte[] data;
+		private int length;
+		private int type = DATA;
+		private CountDownLatch done;
+
+		Block(byte[] data) {
+			this.data = data;
+		}
+
+	}
+
+}
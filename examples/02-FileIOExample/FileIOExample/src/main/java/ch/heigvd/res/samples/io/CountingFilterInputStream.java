@@ -1,7 +1,6 @@
 package ch.heigvd.res.samples.io;
 
-import java.io.FilterInputStream;
-import java.io.IOException;
+import ch.heigvd.res.samples.io.metrics.MeteredInputStream;
 import java.io.InputStream;
 
 /**
@@ -9,50 +8,25 @@ import java.io.InputStream;
  * The filter does not modify the bytes when it reads them, but it counts them.
  * This makes it possible for the client to query the number of read bytes
  * afterwards, using the appropriate getter method.
+ * <p>
+ * The counting is done by MeteredInputStream, which uses long counters (so that
+ * we can read files bigger than 2 GB) that can be read from another thread while
+ * the stream is used.
  * 
  * @author Olivier Liechti
  */
-public class CountingFilterInputStream extends FilterInputStream {
+public class CountingFilterInputStream extends MeteredInputStream {
 	
-	private int numberOfReadOperations = 0;
-	private int numberOfBytesRead = 0;
-
 	public CountingFilterInputStream(InputStream in) {
 		super(in);
 	}
 
-	@Override
-	public int read(byte[] b, int off, int len) throws IOException {
-		int bytesRead = super.read(b, off, len); 
-		if (bytesRead > 0) {
-			numberOfBytesRead += bytesRead;
-		}
-		numberOfReadOperations++;
-		return bytesRead;
-	}
-
-	@Override
-	public int read(byte[] b) throws IOException {
-		return read(b, 0, b.length);
-	}
-
-	@Override
-	public int read() throws IOException {
-		int result = super.read(); 
-		if (result > 0) {
-			numberOfBytesRead++;
-		}
-		numberOfReadOperations++;
-		return result;
-	}
-
-	public int getNumberOfReadOperations() {
-		return numberOfReadOperations;
+	public long getNumberOfReadOperations() {
+		return getMetrics().getNumberOfOperations();
 	}
 
-	public int getNumberOfBytesRead() {
-		return numberOfBytesRead;
+	public long getNumberOfBytesRead() {
+		return getMetrics().getNumberOfBytes();
 	}
 
-	
 }
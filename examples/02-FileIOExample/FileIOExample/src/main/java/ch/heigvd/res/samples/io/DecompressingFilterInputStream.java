@@ -0,0 +1,214 @@
+package ch.heigvd.res.samples.io;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * This input stream filter decompresses the data produced by a
+ * CompressingFilterOutputStream (or by any zlib compressor). Like the
+ * compressing stream, it reports the compression ratio and the CPU time spent
+ * in the decompressor, and it creates its Inflater and its input buffer once.
+ * <p>
+ * Measuring the CPU time is a system call: we do not want to pay for it on
+ * every read() of a single byte. The small reads are thus served from a buffer
+ * of decompressed bytes, which is filled 8 KB at a time, and the CPU time is
+ * only measured when the Inflater is called.
+ *
+ * @author Olivier Liechti
+ */
+public class DecompressingFilterInputStream extends FilterInputStream {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The reads of fewer bytes are served from the buffer of decompressed bytes
+	 */
+	private static final int SMALL_READ_SIZE = 512;
+
+	private static final int DECOMPRESSED_BUFFER_SIZE = 8 * 1024;
+
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+	private final Inflater inflater = new Inflater();
+	private final byte[] dictionary;
+	private final byte[] inputBuffer;
+	private final byte[] singleByte = new byte[1];
+	private final byte[] decompressedBuffer = new byte[DECOMPRESSED_BUFFER_SIZE];
+	private int decompressedPosition = 0;
+	private int decompressedLength = 0;
+
+	private long numberOfBytesIn = 0;
+	private long numberOfBytesOut = 0;
+	private long cpuTimeInNs = 0;
+	private boolean closed = false;
+
+	public DecompressingFilterInputStream(InputStream in) {
+		this(in, null, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param dictionary the dictionary given to the compressor (may be null)
+	 * @param bufferSize the size of the buffer used to read the compressed data
+	 */
+	public DecompressingFilterInputStream(InputStream in, byte[] dictionary, int bufferSize) {
+		super(in);
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("The buffer size must be positive");
+		}
+		this.dictionary = dictionary;
+		this.inputBuffer = new byte[bufferSize];
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("The stream is closed");
+		}
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (decompressedPosition == decompressedLength) {
+			if (len >= SMALL_READ_SIZE) {
+				return inflate(b, off, len);
+			}
+			int decompressedBytes = inflate(decompressedBuffer, 0, decompressedBuffer.length);
+			if (decompressedBytes == -1) {
+				return -1;
+			}
+			decompressedPosition = 0;
+			decompressedLength = decompressedBytes;
+		}
+		int n = Math.min(len, decompressedLength - decompressedPosition);
+		System.arraycopy(decompressedBuffer, decompressedPosition, b, off, n);
+		decompressedPosition += n;
+		return n;
+	}
+
+	/**
+	 * Decompresses at least one byte (reading compressed bytes if needed), and
+	 * measures the CPU time spent to do it
+	 *
+	 * @return the number of decompressed bytes, or -1 at the end of the data
+	 */
+	private int inflate(byte[] b, int off, int len) throws IOException {
+		long startTime = currentThreadCpuTime();
+		try {
+			while (true) {
+				int decompressedBytes = inflater.inflate(b, off, len);
+				if (decompressedBytes > 0) {
+					return decompressedBytes;
+				}
+				if (inflater.finished()) {
+					return -1;
+				}
+				if (inflater.needsDictionary()) {
+					if (dictionary == null) {
+						throw new ZipException("The data has been compressed with a dictionary");
+					}
+					inflater.setDictionary(dictionary);
+				} else if (inflater.needsInput()) {
+					int readBytes = in.read(inputBuffer, 0, inputBuffer.length);
+					if (readBytes == -1) {
+						throw new EOFException("Unexpected end of the compressed data");
+					}
+					inflater.setInput(inputBuffer, 0, readBytes);
+				}
+			}
+		} catch (DataFormatException ex) {
+			throw new ZipException(ex.getMessage());
+		} finally {
+			numberOfBytesIn = inflater.getBytesRead();
+			numberOfBytesOut = inflater.getBytesWritten();
+			cpuTimeInNs += currentThreadCpuTime() - startTime;
+		}
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read() throws IOException {
+		return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xFF;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] skipped = new byte[(int) Math.min(n, inputBuffer.length)];
+		long totalSkipped = 0;
+		while (totalSkipped < n) {
+			int readBytes = read(skipped, 0, (int) Math.min(n - totalSkipped, skipped.length));
+			if (readBytes == -1) {
+				break;
+			}
+			totalSkipped += readBytes;
+		}
+		return totalSkipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (closed) {
+			return 0;
+		}
+		if (decompressedPosition < decompressedLength) {
+			return decompressedLength - decompressedPosition;
+		}
+		return inflater.finished() ? 0 : 1;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			inflater.end();
+			in.close();
+		}
+	}
+
+	private static long currentThreadCpuTime() {
+		return THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * @return the number of compressed bytes consumed by the decompressor
+	 */
+	public long getNumberOfBytesIn() {
+		return numberOfBytesIn;
+	}
+
+	/**
+	 * @return the number of decompressed bytes produced by the decompressor
+	 */
+	public long getNumberOfBytesOut() {
+		return numberOfBytesOut;
+	}
+
+	/**
+	 * @return the number of uncompressed bytes for every compressed byte
+	 */
+	public double getCompressionRatio() {
+		return numberOfBytesIn == 0 ? 0 : (double) numberOfBytesOut / numberOfBytesIn;
+	}
+
+	public long getCpuTimeInNs() {
+		return cpuTimeInNs;
+	}
+
+}
@@ -1,23 +1,613 @@
 package ch.heigvd.res.samples.io;
 
+import ch.heigvd.res.samples.io.checksum.Digest;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CheckedInputStream;
 
 /**
  * This class reads input from an input stream and writes it to an output stream
+ * <p>
+ * When both streams are plain file streams, the duplicator does not move the
+ * bytes itself: it asks the kernel to do the copy with FileChannel.transferTo
+ * (on Linux, this uses copy_file_range or sendfile). The bytes never travel
+ * through the JVM heap and we avoid one system call per buffer. The same happens
+ * with the channel methods, which can be used when one of the ends is a socket
+ * (a SocketChannel is a ByteChannel).
+ * <p>
+ * For all other streams (for instance filter streams, which need to see every
+ * byte), the duplicator uses a classic read/write loop with a large buffer.
+ * The buffer is allocated once and reused for all the calls, which means that
+ * a Duplicator instance must not be shared by several threads.
+ * <p>
+ * For very large files, duplicateInParallel splits the source file in chunks
+ * and copies them with several threads. A single thread is often not able to
+ * keep a fast SSD (or an array of disks) busy.
+ * <p>
+ * duplicatePipelined works with any pair of streams: a reader thread reads the
+ * next buffer while the calling thread writes the previous one, so that the
+ * source and the sink are both kept busy.
+ * <p>
+ * duplicateWithDigest computes a checksum of the bytes read while it copies
+ * them. The copy can then be checked by computing the checksum of the target
+ * (with digest) and comparing the two. For files, duplicateAndVerify does both
+ * during the copy: every block is read back from the target just after it has
+ * been written, so there is no second pass over the whole file.
+ *
  * @author Olivier Liechti
  */
 public class Duplicator {
-	
-	private static final int BUFFER_SIZE = 512;
-	
-	public void duplicate(InputStream is, OutputStream os) throws IOException {
-		byte[] buffer = new byte[BUFFER_SIZE];
+
+	/**
+	 * The size of the buffer used in the first version of this class. We keep it
+	 * to be able to compare the old loop with the new strategies.
+	 */
+	public static final int LEGACY_BUFFER_SIZE = 512;
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The maximum number of bytes that we ask the kernel to transfer in one call.
+	 * Some implementations copy at most 2 GB per call anyway.
+	 */
+	private static final long TRANSFER_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	public static final long DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The size of the direct buffer used by every thread in duplicateInParallel
+	 */
+	private static final int PARALLEL_BUFFER_SIZE = 1024 * 1024;
+
+	public static final int DEFAULT_NUMBER_OF_PIPELINE_BUFFERS = 4;
+
+	/**
+	 * Gets notified by duplicateInParallel every time a chunk has been copied.
+	 * The notifications come from the worker threads, in no particular order,
+	 * so the implementations must be thread-safe.
+	 */
+	public interface ProgressListener {
+
+		void chunkCopied(long chunkOffset, long chunkLength, long totalBytesCopied, long totalBytes);
+
+	}
+
+	private final int bufferSize;
+	private final boolean zeroCopyEnabled;
+	private byte[] buffer;
+	private byte[] verificationBuffer;
+
+	public Duplicator() {
+		this(DEFAULT_BUFFER_SIZE, true);
+	}
+
+	/**
+	 * @param bufferSize the size of the buffer used when the bytes have to go
+	 * through the JVM
+	 * @param zeroCopyEnabled if false, the duplicator always uses the read/write
+	 * loop, even for file streams
+	 */
+	public Duplicator(int bufferSize, boolean zeroCopyEnabled) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("The buffer size must be positive");
+		}
+		this.bufferSize = bufferSize;
+		this.zeroCopyEnabled = zeroCopyEnabled;
+	}
+
+	/**
+	 * Copies all the bytes from the input stream (from its current position) to
+	 * the output stream.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public long duplicate(InputStream is, OutputStream os) throws IOException {
+		// We only use the channels if we have exactly a FileInputStream and a
+		// FileOutputStream: a subclass could override read() or write(), and the
+		// kernel would then silently bypass its code.
+		if (zeroCopyEnabled && is.getClass() == FileInputStream.class && os.getClass() == FileOutputStream.class
+			&& isRegularFileWithContent(((FileInputStream) is).getChannel())) {
+			return duplicate(((FileInputStream) is).getChannel(), ((FileOutputStream) os).getChannel());
+		}
+		return copyWithBuffer(is, os);
+	}
+
+	/**
+	 * transferTo relies on the size of the file. A FIFO (or a pipe) has no
+	 * position and no size, and the files of /proc and the character devices
+	 * have a size of 0, even if they can be read: with them, the kernel would
+	 * copy nothing. We thus only use the zero-copy path for files that have a
+	 * position and a size.
+	 */
+	private static boolean isRegularFileWithContent(FileChannel channel) {
+		try {
+			channel.position();
+			return channel.size() > 0;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Copies all the bytes from the input stream to the output stream, while
+	 * computing a CRC32C (and optionally an xxHash64) of the bytes read. The
+	 * CRC32C is computed by the processor when the JDK supports it (see Crc32C).
+	 * <p>
+	 * The digest does not prove that the copy is correct: it only describes what
+	 * has been read. To check the copy, the destination must be digested
+	 * independently, from the bytes that have really been stored or received (for
+	 * instance by reading the target file again with digest, or by a receiver that
+	 * wraps its socket stream in a CheckedInputStream), and compared with this
+	 * digest (see Digest.matches). Computing a second digest of the bytes given
+	 * to the output stream would be useless: they come from the same buffer as
+	 * the bytes read, so the two digests would always be the same.
+	 * <p>
+	 * The bytes have to go through the JVM to be checksummed, so this method
+	 * never uses the zero-copy path.
+	 *
+	 * @param withXxHash64 true to compute a 64 bits hash in addition to the CRC32C
+	 * @return the digest of the copied bytes
+	 */
+	public Digest duplicateWithDigest(InputStream is, OutputStream os, boolean withXxHash64) throws IOException {
+		Digest digest = new Digest(withXxHash64);
+		copyWithBuffer(new CheckedInputStream(is, digest), os);
+		return digest;
+	}
+
+	/**
+	 * Copies a file and checks the copy with a CRC32C and an xxHash64.
+	 *
+	 * @see #duplicateAndVerify(File, File, boolean)
+	 */
+	public Digest duplicateAndVerify(File source, File target) throws IOException {
+		return duplicateAndVerify(source, target, true);
+	}
+
+	/**
+	 * Copies a file and checks that the target contains the bytes read from the
+	 * source. The source is digested as it is read. After every block has been
+	 * written, it is read back from the target (with a second channel, at the
+	 * position where it has been written) and the bytes read back are digested
+	 * too. At the end, the two digests are compared, as well as the sizes of the
+	 * two files.
+	 * <p>
+	 * The blocks are read back while they are still in the OS page cache, so we
+	 * do not pay for a second pass over the whole file. For the same reason, this
+	 * checks what the file system returns for the target, not what the disk has
+	 * stored.
+	 *
+	 * @param withXxHash64 true to compute a 64 bits hash in addition to the CRC32C
+	 * @return the digest of the copied bytes
+	 * @throws IOException if the target does not contain the bytes of the source
+	 */
+	public Digest duplicateAndVerify(File source, File target, boolean withXxHash64) throws IOException {
+		if (buffer == null) {
+			buffer = new byte[bufferSize];
+		}
+		if (verificationBuffer == null) {
+			verificationBuffer = new byte[bufferSize];
+		}
+		ByteBuffer wrappedVerificationBuffer = ByteBuffer.wrap(verificationBuffer);
+		Digest sourceDigest = new Digest(withXxHash64);
+		Digest targetDigest = new Digest(withXxHash64);
+		try (FileInputStream is = new FileInputStream(source);
+			FileOutputStream os = new FileOutputStream(target);
+			FileChannel readBackChannel = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+			long position = 0;
+			int readBytes;
+			while ( (readBytes = is.read(buffer)) != -1 ) {
+				sourceDigest.update(buffer, 0, readBytes);
+				os.write(buffer, 0, readBytes);
+				wrappedVerificationBuffer.clear().limit(readBytes);
+				while (wrappedVerificationBuffer.hasRemaining()) {
+					if (readBackChannel.read(wrappedVerificationBuffer, position + wrappedVerificationBuffer.position()) == -1) {
+						throw new IOException("The copy of " + source + " in " + target + " is shorter than "
+							+ (position + readBytes) + " bytes");
+					}
+				}
+				targetDigest.update(verificationBuffer, 0, readBytes);
+				position += readBytes;
+			}
+			if (readBackChannel.size() != position) {
+				throw new IOException("The copy of " + source + " in " + target + " has " + readBackChannel.size()
+					+ " bytes, but " + position + " bytes have been read");
+			}
+		}
+		if (!sourceDigest.matches(targetDigest)) {
+			throw new IOException(String.format("The copy of %s in %s is corrupted (CRC32C %08x instead of %08x)",
+				source, target, targetDigest.getCrc32C(), sourceDigest.getCrc32C()));
+		}
+		return sourceDigest;
+	}
+
+	/**
+	 * Reads all the bytes of the input stream and computes their digest, for
+	 * instance to compare a copy with the digest returned by duplicateWithDigest.
+	 *
+	 * @param withXxHash64 true to compute a 64 bits hash in addition to the CRC32C
+	 */
+	public Digest digest(InputStream is, boolean withXxHash64) throws IOException {
+		if (buffer == null) {
+			buffer = new byte[bufferSize];
+		}
+		Digest digest = new Digest(withXxHash64);
+		int readBytes;
+		while ( (readBytes = is.read(buffer)) != -1 ) {
+			digest.update(buffer, 0, readBytes);
+		}
+		return digest;
+	}
+
+	private long copyWithBuffer(InputStream is, OutputStream os) throws IOException {
+		if (buffer == null) {
+			buffer = new byte[bufferSize];
+		}
+		long totalBytes = 0;
 		int readBytes = 0;
 		while ( (readBytes = is.read(buffer)) != -1 ) {
 			os.write(buffer, 0, readBytes);
+			totalBytes += readBytes;
 		}
+		return totalBytes;
+	}
+
+	/**
+	 * Copies all the bytes from a file (from its current position) to a channel,
+	 * which can be another file or a socket. The position of the source channel
+	 * is moved to the end of the file, as if we had read it.
+	 * <p>
+	 * The bytes are transferred by the kernel up to the size of the file. If the
+	 * kernel stops before (the file has been truncated, it is shorter than its
+	 * announced size, like the files of /sys, or the target does not accept more
+	 * bytes), and after the size of the file (which is 0 for the files of /proc or
+	 * for a device), we continue with a read/write loop.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public long duplicate(FileChannel source, WritableByteChannel target) throws IOException {
+		long position = source.position();
+		long size = source.size();
+		long totalBytes = 0;
+		while (position < size) {
+			long transferredBytes = source.transferTo(position, Math.min(size - position, TRANSFER_CHUNK_SIZE), target);
+			if (transferredBytes <= 0) {
+				break;
+			}
+			position += transferredBytes;
+			totalBytes += transferredBytes;
+		}
+		source.position(position);
+		return totalBytes + copyWithBuffer(source, target);
+	}
+
+	/**
+	 * Copies the bytes from the current position of the source to its end, with
+	 * the buffer of the duplicator. A target that does not accept any byte (a
+	 * non-blocking channel that is full) makes the copy fail, instead of waiting
+	 * forever.
+	 */
+	private long copyWithBuffer(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+		if (buffer == null) {
+			buffer = new byte[bufferSize];
+		}
+		ByteBuffer wrappedBuffer = ByteBuffer.wrap(buffer);
+		long totalBytes = 0;
+		while (source.read(wrappedBuffer) != -1) {
+			wrappedBuffer.flip();
+			while (wrappedBuffer.hasRemaining()) {
+				if (target.write(wrappedBuffer) == 0) {
+					throw new IOException("The target channel does not accept more bytes (is it in non-blocking mode?)");
+				}
+			}
+			totalBytes += wrappedBuffer.limit();
+			wrappedBuffer.clear();
+		}
+		return totalBytes;
+	}
+
+	/**
+	 * Copies all the bytes from a channel (for instance a socket) to a file, at
+	 * the current position of the file. The position of the target channel is
+	 * moved after the last written byte, as if we had written the bytes ourselves.
+	 * <p>
+	 * transferFrom returns 0 at the end of the stream, but also when the position
+	 * is after the end of the file (it never extends a file with a hole). So when
+	 * it returns 0, we continue with a read/write loop, which stops at the end of
+	 * the stream. A non-blocking source is refused: it can return 0 bytes before
+	 * the end of the stream, and the copy would be truncated.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public long duplicateToFile(ReadableByteChannel source, FileChannel target) throws IOException {
+		if (source instanceof SelectableChannel && !((SelectableChannel) source).isBlocking()) {
+			throw new IllegalArgumentException("The source channel must be in blocking mode");
+		}
+		long position = target.position();
+		long totalBytes = 0;
+		long transferredBytes;
+		while ( (transferredBytes = target.transferFrom(source, position, TRANSFER_CHUNK_SIZE)) > 0 ) {
+			position += transferredBytes;
+			totalBytes += transferredBytes;
+		}
+		target.position(position);
+		return totalBytes + copyWithBuffer(source, target);
+	}
+
+	/**
+	 * Copies a range of bytes of a file to the same position in another file,
+	 * with FileChannel.transferTo. The position of the target channel is changed,
+	 * so several threads can copy different ranges of the same file, as long as
+	 * every thread uses its own target channel.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public long duplicateRange(FileChannel source, FileChannel target, long position, long count) throws IOException {
+		target.position(position);
+		long totalBytes = 0;
+		while (totalBytes < count) {
+			long transferredBytes = source.transferTo(position + totalBytes, Math.min(count - totalBytes, TRANSFER_CHUNK_SIZE), target);
+			if (transferredBytes <= 0) {
+				throw new EOFException("The source file ends before " + (position + count) + " bytes");
+			}
+			totalBytes += transferredBytes;
+		}
+		return totalBytes;
+	}
+
+	/**
+	 * Copies a file with as many threads as there are processors, in chunks of
+	 * DEFAULT_CHUNK_SIZE bytes.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public long duplicateInParallel(File source, File target) throws IOException {
+		return duplicateInParallel(source, target, DEFAULT_CHUNK_SIZE, Runtime.getRuntime().availableProcessors(), null);
+	}
+
+	/**
+	 * Copies a file by splitting it in chunks. Every worker thread takes the next
+	 * chunk that has not been copied yet, and copies it with positional reads and
+	 * writes (FileChannel.read(buffer, position) and FileChannel.write(buffer,
+	 * position)). These methods do not use the position of the channel, so the
+	 * threads can share the same two channels.
+	 * <p>
+	 * The target file is first given its final size, so that the threads never
+	 * have to extend it while writing. At the end, we check that we have copied
+	 * as many bytes as there are in the source file and that the target file has
+	 * the same size.
+	 *
+	 * @param chunkSize the number of bytes copied by a worker before it takes the
+	 * next chunk
+	 * @param parallelism the number of worker threads
+	 * @param listener notified after every chunk, may be null
+	 * @return the number of bytes copied
+	 */
+	public long duplicateInParallel(File source, File target, long chunkSize, int parallelism, ProgressListener listener) throws IOException {
+		if (chunkSize <= 0 || parallelism <= 0) {
+			throw new IllegalArgumentException("The chunk size and the parallelism must be positive");
+		}
+		try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+			RandomAccessFile targetFile = new RandomAccessFile(target, "rw")) {
+			final long totalBytes = sourceChannel.size();
+			targetFile.setLength(totalBytes);
+			FileChannel targetChannel = targetFile.getChannel();
+
+			long numberOfChunks = (totalBytes + chunkSize - 1) / chunkSize;
+			int numberOfWorkers = (int) Math.max(1, Math.min(parallelism, numberOfChunks));
+			AtomicLong nextChunk = new AtomicLong();
+			AtomicLong totalBytesCopied = new AtomicLong();
+
+			ExecutorService executor = Executors.newFixedThreadPool(numberOfWorkers);
+			try {
+				List<Future<Void>> workers = new ArrayList<>();
+				for (int i = 0; i < numberOfWorkers; i++) {
+					workers.add(executor.submit(new ChunkCopier(sourceChannel, targetChannel, chunkSize, numberOfChunks, totalBytes, nextChunk, totalBytesCopied, listener)));
+				}
+				for (Future<Void> worker : workers) {
+					worker.get();
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while copying " + source, ex);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof IOException) {
+					throw (IOException) ex.getCause();
+				}
+				throw new IOException("Failed to copy " + source, ex.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+
+			if (totalBytesCopied.get() != totalBytes || targetChannel.size() != totalBytes) {
+				throw new IOException("Copied " + totalBytesCopied.get() + " bytes and the target has " + targetChannel.size()
+					+ " bytes, but the source has " + totalBytes + " bytes");
+			}
+			return totalBytes;
+		}
+	}
+
+	/**
+	 * Copies all the bytes from the input stream to the output stream with two
+	 * threads. A reader thread takes a free buffer from a pool, fills it and puts
+	 * it in a queue. The calling thread takes the buffers from this queue, writes
+	 * them and gives them back to the pool. While a buffer is written, the next
+	 * one can be read.
+	 * <p>
+	 * The pool has a fixed number of buffers (of the size given to the
+	 * constructor). When the writer is slower than the reader, the pool gets
+	 * empty and the reader has to wait: this is how we avoid filling the memory
+	 * with buffers that have not been written yet.
+	 * <p>
+	 * This is most useful when the source and the sink are on different devices,
+	 * or when one of them is a network stream. When both streams are on the same
+	 * disk, the two threads compete for the same device and we do not gain much.
+	 *
+	 * @param numberOfBuffers the number of buffers in the pool (at least 2, so
+	 * that the reader and the writer can work at the same time)
+	 * @return the number of bytes copied
+	 */
+	public long duplicatePipelined(final InputStream is, OutputStream os, int numberOfBuffers) throws IOException {
+		if (numberOfBuffers < 2) {
+			throw new IllegalArgumentException("The pipeline needs at least 2 buffers");
+		}
+		final BlockingQueue<Block> freeBlocks = new ArrayBlockingQueue<>(numberOfBuffers);
+		final BlockingQueue<Block> filledBlocks = new ArrayBlockingQueue<>(numberOfBuffers + 1);
+		for (int i = 0; i < numberOfBuffers; i++) {
+			freeBlocks.add(new Block(new byte[bufferSize]));
+		}
+
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (true) {
+						Block block = freeBlocks.take();
+						try {
+							block.length = is.read(block.data);
+						} catch (Throwable ex) {
+							// Whatever happens, the writer must get a last block, or it would wait
+							// forever
+							block.length = -1;
+							block.error = ex;
+						}
+						filledBlocks.put(block);
+						if (block.length == -1) {
+							return;
+						}
+					}
+				} catch (InterruptedException ex) {
+					// The writer has failed and does not need more blocks
+				}
+			}
+		}, "duplicator-reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		long totalBytes = 0;
+		try {
+			while (true) {
+				Block block = filledBlocks.take();
+				if (block.length == -1) {
+					if (block.error instanceof IOException) {
+						throw (IOException) block.error;
+					} else if (block.error != null) {
+						throw new IOException("The reader thread has failed", block.error);
+					}
+					return totalBytes;
+				}
+				os.write(block.data, 0, block.length);
+				totalBytes += block.length;
+				freeBlocks.put(block);
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while copying", ex);
+		} finally {
+			reader.interrupt();
+		}
+	}
+
+	/**
+	 * A buffer that goes back and forth between the reader and the writer in
+	 * duplicatePipelined. A length of -1 means that there is nothing more to read,
+	 * either because we have reached the end of the stream or because of an error.
+	 */
+	private static class Block {
+
+		private final byte[] data;
+		private int length;
+		private Throwable error;
+
+		Block(byte[] data) {
+			this.data = data;
+		}
+
+	}
+
+	/**
+	 * The work done by one thread in duplicateInParallel: as long as there are
+	 * chunks left, take the next one and copy it.
+	 */
+	private static class ChunkCopier implements Callable<Void> {
+
+		private final FileChannel source;
+		private final FileChannel target;
+		private final long chunkSize;
+		private final long numberOfChunks;
+		private final long totalBytes;
+		private final AtomicLong nextChunk;
+		private final AtomicLong totalBytesCopied;
+		private final ProgressListener listener;
+
+		ChunkCopier(FileChannel source, FileChannel target, long chunkSize, long numberOfChunks, long totalBytes,
+			AtomicLong nextChunk, AtomicLong totalBytesCopied, ProgressListener listener) {
+			this.source = source;
+			this.target = target;
+			this.chunkSize = chunkSize;
+			this.numberOfChunks = numberOfChunks;
+			this.totalBytes = totalBytes;
+			this.nextChunk = nextChunk;
+			this.totalBytesCopied = totalBytesCopied;
+			this.listener = listener;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(chunkSize, PARALLEL_BUFFER_SIZE));
+			long chunk;
+			while ( (chunk = nextChunk.getAndIncrement()) < numberOfChunks ) {
+				long chunkOffset = chunk * chunkSize;
+				long chunkLength = Math.min(chunkSize, totalBytes - chunkOffset);
+				copyChunk(buffer, chunkOffset, chunkLength);
+				long copied = totalBytesCopied.addAndGet(chunkLength);
+				if (listener != null) {
+					listener.chunkCopied(chunkOffset, chunkLength, copied, totalBytes);
+				}
+			}
+			return null;
+		}
+
+		private void copyChunk(ByteBuffer buffer, long chunkOffset, long chunkLength) throws IOException {
+			long position = chunkOffset;
+			long end = chunkOffset + chunkLength;
+			while (position < end) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), end - position));
+				while (buffer.hasRemaining()) {
+					if (source.read(buffer, position + buffer.position()) == -1) {
+						throw new IOException("The source file has been truncated at " + (position + buffer.position()) + " bytes");
+					}
+				}
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					target.write(buffer, position + buffer.position());
+				}
+				position += buffer.limit();
+			}
+		}
+
 	}
 
 }
@@ -1,10 +1,19 @@
 package ch.heigvd.res.samples.io;
 
+import ch.heigvd.res.samples.io.pipeline.ByteSetFilterStage;
+import ch.heigvd.res.samples.io.pipeline.CountingStage;
+import ch.heigvd.res.samples.io.pipeline.Pipeline;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +27,14 @@ import java.util.logging.Logger;
  * of read operations) can be queried afterwards. Every byte tentatively written
  * is checked by another filter stream. If the byte has a value of 13, then it
  * is NOT written and is ignored. The number of skipped bytes is counted.
+ * <p>
+ * Finally, it does the same job with a pipeline, where the counting and the
+ * filtering are two stages applied to the same block of bytes.
+ * <p>
+ * With the arguments "tree &lt;source&gt; &lt;target&gt; [parallelism]
+ * [maxConcurrentIO]", the program copies a complete directory tree with the
+ * TreeCopier instead. If the source directory does not exist, a test tree is
+ * generated first.
  *
  * @author Olivier Liechti
  */
@@ -31,6 +48,11 @@ public class FileIOExample {
    */
   public static void main(String[] args) {
 
+    if (args.length >= 3 && "tree".equals(args[0])) {
+      copyTree(args);
+      return;
+    }
+
     // We will use two classes to generate, then duplicate test files
     Generator generator = new Generator();
     Duplicator duplicator = new Duplicator();
@@ -76,6 +98,54 @@ public class FileIOExample {
       }
 
     }
+
+    // The same job, with a pipeline: the bytes are read once, counted and filtered in the same buffer, and written once
+    CountingStage countingStage = new CountingStage();
+    ByteSetFilterStage filterStage = new ByteSetFilterStage((byte) 13);
+    Pipeline pipeline = new Pipeline(countingStage, filterStage);
+    try (InputStream in = new FileInputStream(FILEPATH); OutputStream out = new FileOutputStream(FILEPATH + ".pipeline.copy")) {
+      long bytesWritten = pipeline.copy(in, out);
+      Logger.getLogger(FileIOExample.class.getName()).log(Level.INFO, "Pipeline: {0} bytes read, {1} bytes written, {2} bytes skipped.", new Object[]{countingStage.getMetrics().getNumberOfBytes(), bytesWritten, filterStage.getNumberOfBytesSkipped()});
+    } catch (IOException ex) {
+      Logger.getLogger(FileIOExample.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Copies a directory tree with the TreeCopier and logs the number of files and
+   * bytes copied per second.
+   */
+  private static void copyTree(String[] args) {
+    Path source = Paths.get(args[1]);
+    Path target = Paths.get(args[2]);
+    int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+    int maxConcurrentIO = args.length > 4 ? Integer.parseInt(args[4]) : parallelism;
+    try {
+      if (!Files.exists(source)) {
+        generateTestTree(source);
+      }
+      TreeCopier.Report report = new TreeCopier(parallelism, maxConcurrentIO).copy(source, target);
+      Logger.getLogger(FileIOExample.class.getName()).log(Level.INFO, "Tree copied: {0}", report);
+    } catch (IOException ex) {
+      Logger.getLogger(FileIOExample.class.getName()).log(Level.SEVERE, null, ex);
+    }
+  }
+
+  /**
+   * Generates 20 directories with 500 small files each (between 0 and 64 KB),
+   * and 4 large files of 200 MB at the root.
+   */
+  private static void generateTestTree(Path root) throws IOException {
+    Generator generator = new Generator(42, Generator.ContentProfile.RANDOM);
+    for (int d = 0; d < 20; d++) {
+      Path dir = Files.createDirectories(root.resolve("dir-" + d));
+      for (int f = 0; f < 500; f++) {
+        generator.generateTestFile(new File(dir.toFile(), "file-" + f + ".bin"), (f * 131L * 1024) % (64 * 1024), 1);
+      }
+    }
+    for (int f = 0; f < 4; f++) {
+      generator.generateTestFile(new File(root.toFile(), "large-" + f + ".bin"), 200L * 1024 * 1024, Runtime.getRuntime().availableProcessors());
+    }
   }
 
 }
@@ -1,51 +1,250 @@
 package ch.heigvd.res.samples.io;
 
-import java.io.BufferedOutputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class provides a method to generate a test file, by producing random
- * bytes and writing them to a FileOutputStream instance.
- * 
+ * bytes and writing them to a file.
+ * <p>
+ * The content of the file only depends on the seed and on the content profile:
+ * two files generated with the same seed and profile are identical. To achieve
+ * this, the file is divided in chunks of 4 MB and every chunk gets its own
+ * SplittableRandom, created from the seed and from the index of the chunk. The
+ * chunks can thus be generated in any order, by several threads, which write
+ * them at their position in the file.
+ * <p>
+ * In the first version of this class, we called Math.random() for every byte.
+ * Math.random() uses a single Random instance, shared by all the threads, and
+ * we needed 8 bytes of randomness to produce a single byte. We now produce 8
+ * bytes with every call to nextLong().
+ *
  * @author Olivier Liechti
  */
 public class Generator {
 
-	private static final int BUFFER_SIZE = 512;
+	/**
+	 * The kind of content written in the test files
+	 */
+	public enum ContentProfile {
+		/**
+		 * Random bytes, which cannot be compressed
+		 */
+		RANDOM,
+		/**
+		 * Random words taken from a small dictionary, which compress very well
+		 */
+		TEXT,
+		/**
+		 * A sequence of 4 KB of random bytes, repeated over and over
+		 */
+		PATTERN
+	}
+
+	private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+	private static final int BLOCK_SIZE = 1024 * 1024;
+	private static final int PATTERN_LENGTH = 4096;
+
+	private static final byte[][] WORDS = toBytes(("lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor "
+		+ "incididunt ut labore et dolore magna aliqua enim ad minim veniam quis nostrud exercitation ullamco laboris "
+		+ "nisi aliquip ex ea commodo consequat duis aute irure in reprehenderit voluptate velit esse cillum fugiat "
+		+ "nulla pariatur excepteur sint occaecat cupidatat non proident sunt culpa qui officia deserunt mollit anim "
+		+ "id est laborum").split(" "));
+
+	private final long seed;
+	private final ContentProfile profile;
+	private final byte[] pattern;
 
+	/**
+	 * Creates a generator of random bytes, with a different seed every time
+	 */
+	public Generator() {
+		this(System.nanoTime(), ContentProfile.RANDOM);
+	}
+
+	public Generator(long seed, ContentProfile profile) {
+		this.seed = seed;
+		this.profile = profile;
+		this.pattern = new byte[PATTERN_LENGTH];
+		ByteBuffer patternWords = ByteBuffer.wrap(pattern);
+		SplittableRandom random = new SplittableRandom(seed);
+		while (patternWords.hasRemaining()) {
+			patternWords.putLong(random.nextLong());
+		}
+	}
+
+	/**
+	 * Generates a test file with one thread per processor. If something goes
+	 * wrong, the error is logged.
+	 */
 	public void generateTestFile(String filename, int fileSize) {
-		FileOutputStream fos = null;
-		BufferedOutputStream bos = null;
 		try {
-			fos = new FileOutputStream(filename);
-			bos = new BufferedOutputStream(fos);
-			byte[] buffer = new byte[BUFFER_SIZE];
-			for (int i = 0; i < fileSize / BUFFER_SIZE; i++) {
-				fillBuffer(buffer);
-				bos.write(buffer);
-			}
-			if (fileSize % BUFFER_SIZE != 0) {
-				fillBuffer(buffer);
-				bos.write(buffer, 0, fileSize % BUFFER_SIZE);
-			}
+			generateTestFile(new File(filename), fileSize, Runtime.getRuntime().availableProcessors());
 		} catch (IOException ex) {
 			Logger.getLogger(Generator.class.getName()).log(Level.SEVERE, null, ex);
-		} finally {
+		}
+	}
+
+	/**
+	 * Generates a test file of any size. The threads write disjoint regions of the
+	 * file, so the result is the same whatever the number of threads.
+	 *
+	 * @param parallelism the number of threads used to generate the file
+	 */
+	public void generateTestFile(File file, long fileSize, int parallelism) throws IOException {
+		if (fileSize < 0 || parallelism <= 0) {
+			throw new IllegalArgumentException("The file size cannot be negative and the parallelism must be positive");
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(fileSize);
+			FileChannel channel = raf.getChannel();
+			long numberOfChunks = (fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			int numberOfWorkers = (int) Math.max(1, Math.min(parallelism, numberOfChunks));
+			AtomicLong nextChunk = new AtomicLong();
+
+			ExecutorService executor = Executors.newFixedThreadPool(numberOfWorkers);
 			try {
-				bos.close();
-			} catch (IOException ex) {
-				Logger.getLogger(Generator.class.getName()).log(Level.SEVERE, null, ex);
+				List<Future<Void>> workers = new ArrayList<>();
+				for (int i = 0; i < numberOfWorkers; i++) {
+					workers.add(executor.submit(new ChunkWriter(channel, fileSize, numberOfChunks, nextChunk)));
+				}
+				for (Future<Void> worker : workers) {
+					worker.get();
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while generating " + file, ex);
+			} catch (ExecutionException ex) {
+				if (ex.getCause() instanceof IOException) {
+					throw (IOException) ex.getCause();
+				}
+				throw new IOException("Failed to generate " + file, ex.getCause());
+			} finally {
+				executor.shutdownNow();
 			}
 		}
 	}
 
-	private void fillBuffer(byte[] buffer) {
-		for (int i = 0; i < buffer.length; i++) {
-			buffer[i] = (byte) (Math.random() * 255);
+	/**
+	 * The work done by one thread: as long as there are chunks left, take the
+	 * next one, generate it block by block and write it at its position.
+	 */
+	private class ChunkWriter implements Callable<Void> {
+
+		private final FileChannel channel;
+		private final long fileSize;
+		private final long numberOfChunks;
+		private final AtomicLong nextChunk;
+		private final byte[] block = new byte[BLOCK_SIZE];
+		// The order of the bytes in the words is set explicitly (and does not depend on the platform),
+		// so that a seed always produces the same file. Little endian is the native order of most processors.
+		private final ByteBuffer blockWords = ByteBuffer.wrap(block).order(ByteOrder.LITTLE_ENDIAN);
+
+		ChunkWriter(FileChannel channel, long fileSize, long numberOfChunks, AtomicLong nextChunk) {
+			this.channel = channel;
+			this.fileSize = fileSize;
+			this.numberOfChunks = numberOfChunks;
+			this.nextChunk = nextChunk;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			long chunk;
+			while ( (chunk = nextChunk.getAndIncrement()) < numberOfChunks ) {
+				long chunkOffset = chunk * CHUNK_SIZE;
+				long chunkEnd = Math.min(chunkOffset + CHUNK_SIZE, fileSize);
+				SplittableRandom random = new SplittableRandom(seedOfChunk(chunk));
+				for (long position = chunkOffset; position < chunkEnd; position += BLOCK_SIZE) {
+					int length = (int) Math.min(BLOCK_SIZE, chunkEnd - position);
+					fillBlock(random, position, length);
+					ByteBuffer data = ByteBuffer.wrap(block, 0, length);
+					while (data.hasRemaining()) {
+						channel.write(data, position + data.position());
+					}
+				}
+			}
+			return null;
+		}
+
+		private void fillBlock(SplittableRandom random, long position, int length) {
+			switch (profile) {
+				case RANDOM:
+					blockWords.clear();
+					int numberOfWords = length / 8;
+					for (int w = 0; w < numberOfWords; w++) {
+						blockWords.putLong(random.nextLong());
+					}
+					long lastWord = random.nextLong();
+					for (int j = numberOfWords * 8; j < length; j++) {
+						block[j] = (byte) lastWord;
+						lastWord >>>= 8;
+					}
+					break;
+				case TEXT:
+					int i = 0;
+					while (i < length) {
+						byte[] word = WORDS[random.nextInt(WORDS.length)];
+						int wordLength = Math.min(word.length, length - i);
+						System.arraycopy(word, 0, block, i, wordLength);
+						i += wordLength;
+						if (i < length) {
+							block[i++] = (byte) (random.nextInt(12) == 0 ? '\n' : ' ');
+						}
+					}
+					break;
+				case PATTERN:
+					int patternOffset = (int) (position % PATTERN_LENGTH);
+					for (int filled = 0; filled < length;) {
+						int n = Math.min(PATTERN_LENGTH - patternOffset, length - filled);
+						System.arraycopy(pattern, patternOffset, block, filled, n);
+						filled += n;
+						patternOffset = 0;
+					}
+					break;
+			}
+		}
+
+	}
+
+	/**
+	 * Computes the seed of a chunk. We cannot simply use seed + chunk (or seed ^
+	 * chunk): different pairs would give the same seed (seed 1, chunk 0 and seed
+	 * 0, chunk 1), and two files generated with different seeds would then share
+	 * some chunks. The chunk index is thus spread over the 64 bits (multiplied by
+	 * the golden ratio constant of SplittableRandom) before being combined with
+	 * the seed, and the result is mixed with a 64 bits hash function (the
+	 * finalizer of MurmurHash3, with the constants of SplittableRandom). This is
+	 * the usual way to derive the seeds of several generators from one seed.
+	 */
+	private long seedOfChunk(long chunk) {
+		long z = seed ^ (chunk * 0x9E3779B97F4A7C15L);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static byte[][] toBytes(String[] words) {
+		byte[][] result = new byte[words.length][];
+		for (int i = 0; i < words.length; i++) {
+			result[i] = words[i].getBytes(StandardCharsets.US_ASCII);
 		}
+		return result;
 	}
 
 }
@@ -0,0 +1,366 @@
+package ch.heigvd.res.samples.io;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class copies a complete directory tree with several threads. Copying the
+ * files one after the other is slow when there are many small files (we spend
+ * most of the time opening and closing files, one at a time) and when there are
+ * very large files (a single thread does not keep a fast disk busy).
+ * <p>
+ * While the source tree is walked, the directories are created in the target
+ * tree and the files are turned into tasks, which are submitted to a
+ * ForkJoinPool:
+ * <ul>
+ * <li>small files are grouped in batches, so that we do not create a task for
+ * every file;</li>
+ * <li>large files are split in chunks: the task of a large file creates the
+ * target file with its final size, then forks one task per chunk.</li>
+ * </ul>
+ * In a ForkJoinPool, every thread has its own queue of tasks and a thread that
+ * has nothing to do steals tasks from the other queues ("work stealing"). The
+ * chunks of a large file are thus spread over the idle threads.
+ * <p>
+ * The bytes are copied by Duplicator, which uses FileChannel.transferTo. The
+ * number of files and chunks copied at the same time is limited by a
+ * semaphore, because too many concurrent requests can slow down a disk (or a
+ * network file system) instead of making it faster.
+ *
+ * @author Olivier Liechti
+ */
+public class TreeCopier {
+
+	private static final Logger LOG = Logger.getLogger(TreeCopier.class.getName());
+
+	/**
+	 * Files smaller than this are copied in batches
+	 */
+	public static final long DEFAULT_SMALL_FILE_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * Files larger than this are split in chunks of this size
+	 */
+	public static final long DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	private static final int MAX_FILES_PER_BATCH = 256;
+	private static final long MAX_BYTES_PER_BATCH = 16 * 1024 * 1024;
+
+	private final int parallelism;
+	private final int maxConcurrentIO;
+	private final long smallFileThreshold;
+	private final long chunkSize;
+
+	public TreeCopier() {
+		this(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param parallelism the number of threads of the ForkJoinPool
+	 * @param maxConcurrentIO the maximum number of files or chunks copied at the
+	 * same time
+	 */
+	public TreeCopier(int parallelism, int maxConcurrentIO) {
+		this(parallelism, maxConcurrentIO, DEFAULT_SMALL_FILE_THRESHOLD, DEFAULT_CHUNK_SIZE);
+	}
+
+	public TreeCopier(int parallelism, int maxConcurrentIO, long smallFileThreshold, long chunkSize) {
+		if (parallelism <= 0 || maxConcurrentIO <= 0 || smallFileThreshold < 0 || chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid configuration");
+		}
+		this.parallelism = parallelism;
+		this.maxConcurrentIO = maxConcurrentIO;
+		this.smallFileThreshold = smallFileThreshold;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Copies all the directories and regular files found under source to target.
+	 * Existing files are overwritten. Symbolic links and special files are
+	 * skipped.
+	 *
+	 * @return the statistics of the copy
+	 */
+	public Report copy(final Path source, final Path target) throws IOException {
+		if (!Files.isDirectory(source)) {
+			throw new IOException(source + " is not a directory");
+		}
+		final Report report = new Report();
+		final Semaphore ioPermits = new Semaphore(maxConcurrentIO);
+		final List<ForkJoinTask<?>> submittedTasks = new ArrayList<>();
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		long startTime = System.nanoTime();
+		try {
+			Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+				private List<Path> batch = new ArrayList<>();
+				private long batchBytes = 0;
+
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+					report.numberOfDirectories.increment();
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (!attrs.isRegularFile()) {
+						LOG.log(Level.WARNING, "Skipping {0}, which is not a regular file", file);
+						return FileVisitResult.CONTINUE;
+					}
+					Path targetFile = target.resolve(source.relativize(file).toString());
+					if (attrs.size() >= smallFileThreshold) {
+						submittedTasks.add(pool.submit(new LargeFileTask(file, targetFile, attrs.size(), ioPermits, report)));
+						return FileVisitResult.CONTINUE;
+					}
+					batch.add(file);
+					batch.add(targetFile);
+					batchBytes += attrs.size();
+					if (batch.size() / 2 >= MAX_FILES_PER_BATCH || batchBytes >= MAX_BYTES_PER_BATCH) {
+						submitBatch();
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					if (exc != null) {
+						throw exc;
+					}
+					if (dir.equals(source) && !batch.isEmpty()) {
+						submitBatch();
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				private void submitBatch() {
+					submittedTasks.add(pool.submit(new BatchTask(batch, ioPermits, report)));
+					batch = new ArrayList<>();
+					batchBytes = 0;
+				}
+
+			});
+
+			for (ForkJoinTask<?> task : submittedTasks) {
+				task.join();
+			}
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		} finally {
+			// If a task has failed, the others may still be running: we must not
+			// return while they are writing into the target tree
+			for (ForkJoinTask<?> task : submittedTasks) {
+				task.cancel(false);
+			}
+			pool.shutdownNow();
+			awaitTermination(pool);
+		}
+		report.elapsedTimeInNs = System.nanoTime() - startTime;
+		return report;
+	}
+
+	private static void awaitTermination(ForkJoinPool pool) {
+		boolean interrupted = false;
+		while (!pool.isTerminated()) {
+			try {
+				pool.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Copies a batch of small files, one after the other. The list contains the
+	 * source and the target of every file.
+	 */
+	private static class BatchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<Path> sourcesAndTargets;
+		private final Semaphore ioPermits;
+		private final Report report;
+
+		BatchTask(List<Path> sourcesAndTargets, Semaphore ioPermits, Report report) {
+			this.sourcesAndTargets = sourcesAndTargets;
+			this.ioPermits = ioPermits;
+			this.report = report;
+		}
+
+		@Override
+		protected void compute() {
+			Duplicator duplicator = new Duplicator();
+			for (int i = 0; i < sourcesAndTargets.size(); i += 2) {
+				ioPermits.acquireUninterruptibly();
+				try (FileInputStream is = new FileInputStream(sourcesAndTargets.get(i).toFile());
+					FileOutputStream os = new FileOutputStream(sourcesAndTargets.get(i + 1).toFile())) {
+					report.numberOfBytes.add(duplicator.duplicate(is, os));
+					report.numberOfFiles.increment();
+				} catch (IOException ex) {
+					throw new UncheckedIOException("Could not copy " + sourcesAndTargets.get(i), ex);
+				} finally {
+					ioPermits.release();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Copies a large file: creates the target file with its final size, then
+	 * copies the chunks in parallel. If a chunk cannot be copied, the target file
+	 * is deleted, so that we do not leave a file of the right size with holes.
+	 */
+	private class LargeFileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path source;
+		private final Path target;
+		private final long size;
+		private final Semaphore ioPermits;
+		private final Report report;
+
+		LargeFileTask(Path source, Path target, long size, Semaphore ioPermits, Report report) {
+			this.source = source;
+			this.target = target;
+			this.size = size;
+			this.ioPermits = ioPermits;
+			this.report = report;
+		}
+
+		@Override
+		protected void compute() {
+			try (RandomAccessFile targetFile = new RandomAccessFile(target.toFile(), "rw")) {
+				targetFile.setLength(size);
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Could not create " + target, ex);
+			}
+			List<ChunkTask> chunks = new ArrayList<>();
+			for (long position = 0; position < size; position += chunkSize) {
+				chunks.add(new ChunkTask(source, target, position, Math.min(chunkSize, size - position), ioPermits, report));
+			}
+			try {
+				invokeAll(chunks);
+			} catch (RuntimeException | Error ex) {
+				// invokeAll does not wait for the chunks that are still running
+				for (ChunkTask chunk : chunks) {
+					chunk.cancel(false);
+					chunk.quietlyJoin();
+				}
+				try {
+					Files.deleteIfExists(target);
+				} catch (IOException deleteException) {
+					ex.addSuppressed(deleteException);
+				}
+				throw ex;
+			}
+			report.numberOfFiles.increment();
+		}
+
+	}
+
+	private static class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path source;
+		private final Path target;
+		private final long position;
+		private final long length;
+		private final Semaphore ioPermits;
+		private final Report report;
+
+		ChunkTask(Path source, Path target, long position, long length, Semaphore ioPermits, Report report) {
+			this.source = source;
+			this.target = target;
+			this.position = position;
+			this.length = length;
+			this.ioPermits = ioPermits;
+			this.report = report;
+		}
+
+		@Override
+		protected void compute() {
+			ioPermits.acquireUninterruptibly();
+			try (FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+				report.numberOfBytes.add(new Duplicator().duplicateRange(sourceChannel, targetChannel, position, length));
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Could not copy " + source + " at position " + position, ex);
+			} finally {
+				ioPermits.release();
+			}
+		}
+
+	}
+
+	/**
+	 * The statistics of a copy. The counters can be read while the copy is
+	 * running, from another thread.
+	 */
+	public static class Report {
+
+		private final LongAdder numberOfFiles = new LongAdder();
+		private final LongAdder numberOfDirectories = new LongAdder();
+		private final LongAdder numberOfBytes = new LongAdder();
+		private volatile long elapsedTimeInNs;
+
+		public long getNumberOfFiles() {
+			return numberOfFiles.sum();
+		}
+
+		public long getNumberOfDirectories() {
+			return numberOfDirectories.sum();
+		}
+
+		public long getNumberOfBytes() {
+			return numberOfBytes.sum();
+		}
+
+		public long getElapsedTimeInNs() {
+			return elapsedTimeInNs;
+		}
+
+		public double getFilesPerSecond() {
+			return elapsedTimeInNs == 0 ? 0 : getNumberOfFiles() * 1e9 / elapsedTimeInNs;
+		}
+
+		public double getThroughputInMBps() {
+			return elapsedTimeInNs == 0 ? 0 : getNumberOfBytes() / (1024.0 * 1024.0) * 1e9 / elapsedTimeInNs;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d files (%d directories, %d bytes) in %d ms: %.0f files/s, %.1f MB/s", getNumberOfFiles(),
+				getNumberOfDirectories(), getNumberOfBytes(), elapsedTimeInNs / 1_000_000, getFilesPerSecond(), getThroughputInMBps());
+		}
+
+	}
+
+}
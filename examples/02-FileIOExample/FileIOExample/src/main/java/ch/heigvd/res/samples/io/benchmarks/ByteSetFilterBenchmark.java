@@ -0,0 +1,104 @@
+package ch.heigvd.res.samples.io.benchmarks;
+
+import ch.heigvd.res.samples.io.SuperstitiousFilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * This JMH benchmark compares the first version of SuperstitiousFilterOutputStream
+ * (LEGACY) with the current one, based on ByteSetFilterOutputStream (BYTE_SET).
+ * Every invocation filters 1 MB, submitted in blocks of blockSize bytes, and
+ * sends the result to a stream that discards it.
+ * <p>
+ * The density parameter gives the proportion of bytes that have to be dropped:
+ * NO_MATCH (no byte with the value 13), SPARSE (1 byte out of 256, as in random
+ * data) and DENSE (1 byte out of 4). Run it with -prof gc to see the memory
+ * allocated for every megabyte.
+ *
+ * @author Olivier Liechti
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class ByteSetFilterBenchmark {
+
+	public enum Implementation {
+		LEGACY, BYTE_SET
+	}
+
+	public enum Density {
+		NO_MATCH, SPARSE, DENSE
+	}
+
+	private static final int DATA_SIZE = 1024 * 1024;
+
+	@Param({"LEGACY", "BYTE_SET"})
+	public Implementation implementation;
+
+	@Param({"NO_MATCH", "SPARSE", "DENSE"})
+	public Density density;
+
+	@Param({"8192"})
+	public int blockSize;
+
+	private byte[] data;
+	private OutputStream filter;
+
+	@Setup(Level.Trial)
+	public void prepareData(final Blackhole blackhole) {
+		Random random = new Random(42);
+		data = new byte[DATA_SIZE];
+		for (int i = 0; i < data.length; i++) {
+			switch (density) {
+				case NO_MATCH:
+					data[i] = (byte) (14 + random.nextInt(200));
+					break;
+				case SPARSE:
+					data[i] = (byte) random.nextInt(256);
+					break;
+				default:
+					data[i] = random.nextInt(4) == 0 ? 13 : (byte) (14 + random.nextInt(200));
+			}
+		}
+		OutputStream sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				blackhole.consume(b);
+				blackhole.consume(len);
+			}
+		};
+		filter = implementation == Implementation.LEGACY ? new LegacySuperstitiousFilterOutputStream(sink) : new SuperstitiousFilterOutputStream(sink);
+	}
+
+	@Benchmark
+	public void filter(ThroughputCounters counters) throws IOException {
+		for (int off = 0; off < data.length; off += blockSize) {
+			filter.write(data, off, Math.min(blockSize, data.length - off));
+		}
+		counters.addBytes(data.length);
+	}
+
+}
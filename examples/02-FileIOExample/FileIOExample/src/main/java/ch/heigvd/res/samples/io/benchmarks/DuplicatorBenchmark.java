@@ -0,0 +1,125 @@
+package ch.heigvd.res.samples.io.benchmarks;
+
+import ch.heigvd.res.samples.io.Duplicator;
+import ch.heigvd.res.samples.io.Generator;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This JMH benchmark compares the ways Duplicator can copy a file:
+ * <ul>
+ * <li>LEGACY_LOOP is the original loop, with a 512 bytes buffer;</li>
+ * <li>LARGE_BUFFER is the same loop, with the default (64 KB) buffer;</li>
+ * <li>ZERO_COPY lets the kernel copy the bytes with FileChannel.transferTo;</li>
+ * <li>PARALLEL_CHUNKS copies 16 MB chunks with one thread per processor;</li>
+ * <li>PIPELINED reads and writes 64 KB buffers in two threads;</li>
+ * <li>WITH_DIGEST is LARGE_BUFFER, with a CRC32C and an xxHash64 of the bytes
+ * read.</li>
+ * <li>VERIFIED is WITH_DIGEST, with every block read back from the target and
+ * digested, and the two digests compared at the end.</li>
+ * </ul>
+ * Every invocation copies one complete file, so the "megabytes" secondary score
+ * gives the throughput in MB/s. To see how much CPU every strategy uses, add a
+ * profiler, for instance:
+ *
+ *   java -jar target/benchmarks.jar DuplicatorBenchmark -p fileSize=1073741824 -prof perfnorm
+ *
+ * Note that the source file has just been written, so it is served by the OS
+ * page cache: we measure the cost of the copy, not the speed of the device.
+ *
+ * @author Olivier Liechti
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DuplicatorBenchmark {
+
+	public enum CopyStrategy {
+		LEGACY_LOOP, LARGE_BUFFER, ZERO_COPY, PARALLEL_CHUNKS, PIPELINED, WITH_DIGEST, VERIFIED
+	}
+
+	@Param({"LEGACY_LOOP", "LARGE_BUFFER", "ZERO_COPY", "PARALLEL_CHUNKS", "PIPELINED", "WITH_DIGEST", "VERIFIED"})
+	public CopyStrategy copyStrategy;
+
+	@Param({"1048576", "67108864", "1073741824"})
+	public int fileSize;
+
+	private static final long PARALLEL_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private Duplicator duplicator;
+	private File source;
+	private File target;
+
+	@Setup(Level.Trial)
+	public void createTestFile() throws IOException {
+		switch (copyStrategy) {
+			case LEGACY_LOOP:
+				duplicator = new Duplicator(Duplicator.LEGACY_BUFFER_SIZE, false);
+				break;
+			case LARGE_BUFFER:
+				duplicator = new Duplicator(Duplicator.DEFAULT_BUFFER_SIZE, false);
+				break;
+			default:
+				duplicator = new Duplicator(Duplicator.DEFAULT_BUFFER_SIZE, true);
+		}
+		source = File.createTempFile("jmh-source-", ".bin");
+		target = File.createTempFile("jmh-target-", ".bin");
+		new Generator().generateTestFile(source.getPath(), fileSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteTestFiles() {
+		source.delete();
+		target.delete();
+	}
+
+	@Benchmark
+	public long duplicate(ThroughputCounters counters) throws IOException {
+		if (copyStrategy == CopyStrategy.PARALLEL_CHUNKS) {
+			long totalBytes = duplicator.duplicateInParallel(source, target, PARALLEL_CHUNK_SIZE, Runtime.getRuntime().availableProcessors(), null);
+			counters.addBytes(totalBytes);
+			return totalBytes;
+		}
+		if (copyStrategy == CopyStrategy.VERIFIED) {
+			duplicator.duplicateAndVerify(source, target);
+			counters.addBytes(fileSize);
+			return fileSize;
+		}
+		try (FileInputStream is = new FileInputStream(source); FileOutputStream os = new FileOutputStream(target)) {
+			long totalBytes;
+			switch (copyStrategy) {
+				case PIPELINED:
+					totalBytes = duplicator.duplicatePipelined(is, os, Duplicator.DEFAULT_NUMBER_OF_PIPELINE_BUFFERS);
+					break;
+				case WITH_DIGEST:
+					duplicator.duplicateWithDigest(is, os, true);
+					totalBytes = fileSize;
+					break;
+				default:
+					totalBytes = duplicator.duplicate(is, os);
+			}
+			counters.addBytes(totalBytes);
+			return totalBytes;
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package ch.heigvd.res.samples.io.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The first version of SuperstitiousFilterOutputStream, which we keep to compare
+ * it with ByteSetFilterOutputStream. Every call to write(byte[], int, int) creates
+ * a ByteArrayOutputStream, copies the bytes one by one and creates a new array.
+ *
+ * @author Olivier Liechti
+ */
+class LegacySuperstitiousFilterOutputStream extends FilterOutputStream {
+
+	LegacySuperstitiousFilterOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for (int i = 0; i < len; i++) {
+			byte submittedByte = b[off + i];
+			if (submittedByte != 13) {
+				bos.write(submittedByte);
+			}
+		}
+		byte[] result = bos.toByteArray();
+		out.write(result, 0, result.length);
+	}
+
+}
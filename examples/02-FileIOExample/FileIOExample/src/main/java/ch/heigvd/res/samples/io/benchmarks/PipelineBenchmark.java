@@ -0,0 +1,139 @@
+package ch.heigvd.res.samples.io.benchmarks;
+
+import ch.heigvd.res.samples.io.SuperstitiousFilterOutputStream;
+import ch.heigvd.res.samples.io.metrics.MeteredInputStream;
+import ch.heigvd.res.samples.io.metrics.MeteredOutputStream;
+import ch.heigvd.res.samples.io.pipeline.ByteSetFilterStage;
+import ch.heigvd.res.samples.io.pipeline.ChecksumStage;
+import ch.heigvd.res.samples.io.pipeline.CountingStage;
+import ch.heigvd.res.samples.io.pipeline.Pipeline;
+import ch.heigvd.res.samples.io.pipeline.TransformStage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * This JMH benchmark measures the cost of the stages of a pipeline. Every
+ * invocation copies 1 MB of random bytes from memory to a stream that discards
+ * them:
+ * <ul>
+ * <li>plainCopy uses a pipeline without any stage;</li>
+ * <li>fiveCountingStages uses a pipeline with 5 stages that do almost nothing,
+ * which shows the cost of the pipeline itself;</li>
+ * <li>decorators uses a chain of filter streams that count the bytes, compute
+ * a CRC32, drop the bytes with the value 13 and count the bytes again;</li>
+ * <li>fourStages does the same job with a pipeline;</li>
+ * <li>fiveStages adds a stage which transforms the bytes with a lookup table.</li>
+ * </ul>
+ * The difference between a pipeline and a plain copy is the work done by the
+ * stages (mostly the byte filter and the transformation, which have to look at
+ * every byte), not the cost of chaining them.
+ *
+ * @author Olivier Liechti
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+	private static final int DATA_SIZE = 1024 * 1024;
+
+	private ByteArrayInputStream source;
+	private OutputStream sink;
+	private Pipeline emptyPipeline;
+	private Pipeline fiveCountingStagePipeline;
+	private Pipeline fourStagePipeline;
+	private Pipeline fiveStagePipeline;
+	private byte[] buffer;
+
+	@Setup(Level.Trial)
+	public void prepare(final Blackhole blackhole) {
+		byte[] data = new byte[DATA_SIZE];
+		new Random(42).nextBytes(data);
+		source = new ByteArrayInputStream(data);
+		sink = new OutputStream() {
+			@Override
+			public void write(int b) {
+				blackhole.consume(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				blackhole.consume(b);
+				blackhole.consume(len);
+			}
+		};
+		emptyPipeline = new Pipeline();
+		fiveCountingStagePipeline = new Pipeline(new CountingStage(), new CountingStage(), new CountingStage(),
+			new CountingStage(), new CountingStage());
+		fourStagePipeline = new Pipeline(new CountingStage(), new ChecksumStage(new CRC32()), new ByteSetFilterStage((byte) 13),
+			new CountingStage());
+		fiveStagePipeline = new Pipeline(new CountingStage(), new ByteSetFilterStage((byte) 13), new ChecksumStage(new CRC32()),
+			new TransformStage(b -> b ^ 0x20), new CountingStage());
+		buffer = new byte[Pipeline.DEFAULT_BLOCK_SIZE];
+	}
+
+	@Benchmark
+	public long plainCopy(ThroughputCounters counters) throws IOException {
+		source.reset();
+		counters.addBytes(DATA_SIZE);
+		return emptyPipeline.copy(source, sink);
+	}
+
+	@Benchmark
+	public long fiveCountingStages(ThroughputCounters counters) throws IOException {
+		source.reset();
+		counters.addBytes(DATA_SIZE);
+		return fiveCountingStagePipeline.copy(source, sink);
+	}
+
+	@Benchmark
+	public long fourStages(ThroughputCounters counters) throws IOException {
+		source.reset();
+		counters.addBytes(DATA_SIZE);
+		return fourStagePipeline.copy(source, sink);
+	}
+
+	@Benchmark
+	public long fiveStages(ThroughputCounters counters) throws IOException {
+		source.reset();
+		counters.addBytes(DATA_SIZE);
+		return fiveStagePipeline.copy(source, sink);
+	}
+
+	@Benchmark
+	public long decorators(ThroughputCounters counters) throws IOException {
+		source.reset();
+		InputStream in = new MeteredInputStream(new CheckedInputStream(source, new CRC32()));
+		OutputStream out = new SuperstitiousFilterOutputStream(new MeteredOutputStream(sink));
+		long totalBytes = 0;
+		int readBytes;
+		while ( (readBytes = in.read(buffer)) != -1 ) {
+			out.write(buffer, 0, readBytes);
+			totalBytes += readBytes;
+		}
+		counters.addBytes(DATA_SIZE);
+		return totalBytes;
+	}
+
+}
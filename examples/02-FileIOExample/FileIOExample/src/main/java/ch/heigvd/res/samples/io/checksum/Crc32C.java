@@ -0,0 +1,54 @@
+package ch.heigvd.res.samples.io.checksum;
+
+import java.lang.reflect.Constructor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
+
+/**
+ * This class creates CRC32C checksums. Since Java 9, the JDK provides
+ * java.util.zip.CRC32C, which the JIT compiler replaces by the CRC32 instruction
+ * of the processor (on x86 with SSE 4.2 and on ARMv8). This module is compiled
+ * for Java 8, so we look for this class at runtime and use our own
+ * implementation if it is not there.
+ *
+ * @author Olivier Liechti
+ */
+public final class Crc32C {
+
+	private static final Logger LOG = Logger.getLogger(Crc32C.class.getName());
+
+	private static final Constructor<? extends Checksum> JDK_CONSTRUCTOR = findJdkConstructor();
+
+	private Crc32C() {
+	}
+
+	public static Checksum create() {
+		if (JDK_CONSTRUCTOR != null) {
+			try {
+				return JDK_CONSTRUCTOR.newInstance();
+			} catch (ReflectiveOperationException ex) {
+				LOG.log(Level.WARNING, "Could not create a java.util.zip.CRC32C", ex);
+			}
+		}
+		return new PureJavaCrc32C();
+	}
+
+	/**
+	 * @return true if the checksums are computed by the JDK (and thus probably by
+	 * the processor)
+	 */
+	public static boolean isProvidedByJdk() {
+		return JDK_CONSTRUCTOR != null;
+	}
+
+	private static Constructor<? extends Checksum> findJdkConstructor() {
+		try {
+			return Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+		} catch (ReflectiveOperationException ex) {
+			LOG.log(Level.INFO, "java.util.zip.CRC32C is not available, using a pure Java implementation");
+			return null;
+		}
+	}
+
+}
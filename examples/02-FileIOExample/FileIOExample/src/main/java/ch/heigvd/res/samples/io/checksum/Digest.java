@@ -0,0 +1,92 @@
+package ch.heigvd.res.samples.io.checksum;
+
+import java.util.zip.Checksum;
+
+/**
+ * This checksum computes a CRC32C and, optionally, an xxHash64 of the same
+ * bytes, in a single pass. getValue() returns the CRC32C. Two digests can be
+ * compared with matches().
+ *
+ * @author Olivier Liechti
+ */
+public class Digest implements Checksum {
+
+	private final Checksum crc32c = Crc32C.create();
+	private final XxHash64 xxHash64;
+
+	public Digest() {
+		this(false);
+	}
+
+	/**
+	 * @param withXxHash64 true to compute an xxHash64 in addition to the CRC32C
+	 */
+	public Digest(boolean withXxHash64) {
+		xxHash64 = withXxHash64 ? new XxHash64() : null;
+	}
+
+	@Override
+	public void update(int b) {
+		crc32c.update(b);
+		if (xxHash64 != null) {
+			xxHash64.update(b);
+		}
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		crc32c.update(b, off, len);
+		if (xxHash64 != null) {
+			xxHash64.update(b, off, len);
+		}
+	}
+
+	@Override
+	public long getValue() {
+		return getCrc32C();
+	}
+
+	public long getCrc32C() {
+		return crc32c.getValue();
+	}
+
+	public boolean hasXxHash64() {
+		return xxHash64 != null;
+	}
+
+	public long getXxHash64() {
+		if (xxHash64 == null) {
+			throw new IllegalStateException("This digest does not compute an xxHash64");
+		}
+		return xxHash64.getValue();
+	}
+
+	@Override
+	public void reset() {
+		crc32c.reset();
+		if (xxHash64 != null) {
+			xxHash64.reset();
+		}
+	}
+
+	/**
+	 * @return true if the two digests have the same CRC32C and, if both have
+	 * one, the same xxHash64
+	 */
+	public boolean matches(Digest other) {
+		if (getCrc32C() != other.getCrc32C()) {
+			return false;
+		}
+		return !hasXxHash64() || !other.hasXxHash64() || getXxHash64() == other.getXxHash64();
+	}
+
+	@Override
+	public String toString() {
+		String result = String.format("CRC32C=%08x", getCrc32C());
+		if (xxHash64 != null) {
+			result += String.format(", xxHash64=%016x", getXxHash64());
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,85 @@
+package ch.heigvd.res.samples.io.checksum;
+
+import java.util.zip.Checksum;
+
+/**
+ * A CRC32C (Castagnoli) checksum computed in Java, used when the JDK does not
+ * provide java.util.zip.CRC32C (before Java 9).
+ * <p>
+ * The classic implementation processes one byte at a time, with a table of 256
+ * values. This one uses 8 tables ("slicing-by-8"): it processes 8 bytes at a
+ * time, with 8 independent table lookups that the processor can run in
+ * parallel.
+ *
+ * @author Olivier Liechti
+ */
+public class PureJavaCrc32C implements Checksum {
+
+	/**
+	 * The CRC32C polynomial, in reversed bit order
+	 */
+	private static final int POLYNOMIAL = 0x82F63B78;
+
+	private static final int[][] TABLES = createTables();
+
+	private int crc = 0xFFFFFFFF;
+
+	@Override
+	public void update(int b) {
+		crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		int[] t0 = TABLES[0], t1 = TABLES[1], t2 = TABLES[2], t3 = TABLES[3];
+		int[] t4 = TABLES[4], t5 = TABLES[5], t6 = TABLES[6], t7 = TABLES[7];
+		int localCrc = crc;
+		while (len >= 8) {
+			int one = ((b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24) ^ localCrc;
+			int two = (b[off + 4] & 0xFF) | (b[off + 5] & 0xFF) << 8 | (b[off + 6] & 0xFF) << 16 | (b[off + 7] & 0xFF) << 24;
+			localCrc = t7[one & 0xFF] ^ t6[(one >>> 8) & 0xFF] ^ t5[(one >>> 16) & 0xFF] ^ t4[one >>> 24]
+				^ t3[two & 0xFF] ^ t2[(two >>> 8) & 0xFF] ^ t1[(two >>> 16) & 0xFF] ^ t0[two >>> 24];
+			off += 8;
+			len -= 8;
+		}
+		while (len > 0) {
+			localCrc = (localCrc >>> 8) ^ t0[(localCrc ^ b[off]) & 0xFF];
+			off++;
+			len--;
+		}
+		crc = localCrc;
+	}
+
+	@Override
+	public long getValue() {
+		return ~crc & 0xFFFFFFFFL;
+	}
+
+	@Override
+	public void reset() {
+		crc = 0xFFFFFFFF;
+	}
+
+	/**
+	 * TABLES[0][b] is the CRC of the byte b. TABLES[k][b] is the CRC of the byte b
+	 * followed by k zero bytes.
+	 */
+	private static int[][] createTables() {
+		int[][] tables = new int[8][256];
+		for (int b = 0; b < 256; b++) {
+			int crc = b;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			}
+			tables[0][b] = crc;
+		}
+		for (int k = 1; k < 8; k++) {
+			for (int b = 0; b < 256; b++) {
+				int previous = tables[k - 1][b];
+				tables[k][b] = (previous >>> 8) ^ tables[0][previous & 0xFF];
+			}
+		}
+		return tables;
+	}
+
+}
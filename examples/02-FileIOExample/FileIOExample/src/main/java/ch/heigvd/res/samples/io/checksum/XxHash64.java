@@ -0,0 +1,154 @@
+package ch.heigvd.res.samples.io.checksum;
+
+import java.util.zip.Checksum;
+
+/**
+ * The xxHash64 hash function (https://cyan4973.github.io/xxHash/), exposed as a
+ * Checksum so that it can be used with CheckedInputStream, CheckedOutputStream
+ * or a ChecksumStage. It is not a cryptographic hash, but it produces 64 bits
+ * (the probability that two different files get the same value is much lower
+ * than with a 32 bits CRC) and it is very fast: it consumes 32 bytes at a time,
+ * in 4 independent lanes.
+ * <p>
+ * The bytes may be given in blocks of any size: we keep the end of a block
+ * that does not fill a complete stripe of 32 bytes until the next call.
+ *
+ * @author Olivier Liechti
+ */
+public class XxHash64 implements Checksum {
+
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private static final int STRIPE_LENGTH = 32;
+
+	private final long seed;
+	private long v1;
+	private long v2;
+	private long v3;
+	private long v4;
+	private long totalLength;
+	private final byte[] stripe = new byte[STRIPE_LENGTH];
+	private int stripeLength;
+
+	public XxHash64() {
+		this(0);
+	}
+
+	public XxHash64(long seed) {
+		this.seed = seed;
+		reset();
+	}
+
+	@Override
+	public void update(int b) {
+		// No array for a single byte: it goes directly into the stripe
+		totalLength++;
+		stripe[stripeLength++] = (byte) b;
+		if (stripeLength == STRIPE_LENGTH) {
+			processStripe(stripe, 0);
+			stripeLength = 0;
+		}
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		totalLength += len;
+		if (stripeLength > 0) {
+			int n = Math.min(len, STRIPE_LENGTH - stripeLength);
+			System.arraycopy(b, off, stripe, stripeLength, n);
+			stripeLength += n;
+			off += n;
+			len -= n;
+			if (stripeLength < STRIPE_LENGTH) {
+				return;
+			}
+			processStripe(stripe, 0);
+			stripeLength = 0;
+		}
+		while (len >= STRIPE_LENGTH) {
+			processStripe(b, off);
+			off += STRIPE_LENGTH;
+			len -= STRIPE_LENGTH;
+		}
+		System.arraycopy(b, off, stripe, 0, len);
+		stripeLength = len;
+	}
+
+	private void processStripe(byte[] b, int off) {
+		v1 = round(v1, readLong(b, off));
+		v2 = round(v2, readLong(b, off + 8));
+		v3 = round(v3, readLong(b, off + 16));
+		v4 = round(v4, readLong(b, off + 24));
+	}
+
+	@Override
+	public long getValue() {
+		long hash;
+		if (totalLength >= STRIPE_LENGTH) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else {
+			hash = seed + PRIME5;
+		}
+		hash += totalLength;
+
+		int i = 0;
+		for (; i + 8 <= stripeLength; i += 8) {
+			hash ^= round(0, readLong(stripe, i));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if (i + 4 <= stripeLength) {
+			hash ^= (readInt(stripe, i) & 0xFFFFFFFFL) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			i += 4;
+		}
+		for (; i < stripeLength; i++) {
+			hash ^= (stripe[i] & 0xFF) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	@Override
+	public final void reset() {
+		v1 = seed + PRIME1 + PRIME2;
+		v2 = seed + PRIME2;
+		v3 = seed;
+		v4 = seed - PRIME1;
+		totalLength = 0;
+		stripeLength = 0;
+	}
+
+	private static long round(long accumulator, long input) {
+		accumulator += input * PRIME2;
+		accumulator = Long.rotateLeft(accumulator, 31);
+		return accumulator * PRIME1;
+	}
+
+	private static long mergeRound(long accumulator, long value) {
+		accumulator ^= round(0, value);
+		return accumulator * PRIME1 + PRIME4;
+	}
+
+	private static long readLong(byte[] b, int off) {
+		return (readInt(b, off) & 0xFFFFFFFFL) | ((long) readInt(b, off + 4) << 32);
+	}
+
+	private static int readInt(byte[] b, int off) {
+		return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+	}
+
+}
@@ -0,0 +1,154 @@
+package ch.heigvd.res.samples.io.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects the metrics of one or several metered streams or channels:
+ * number of bytes, number of operations, histogram of the operation sizes and
+ * throughput.
+ * <p>
+ * The counters are LongAdder instances. Every thread that updates a LongAdder
+ * gets its own cell when there is contention, so a metrics instance can be
+ * shared by all the streams of a pipeline without slowing them down. The values
+ * are long, so they do not overflow after 2 GB, and they can be read at any
+ * time from another thread (for instance a monitoring thread, or the JMX agent
+ * if the metrics have been registered).
+ *
+ * @author Olivier Liechti
+ */
+public class IOMetrics implements IOMetricsMXBean {
+
+	private static final int NUMBER_OF_SIZE_CLASSES = 33;
+
+	/**
+	 * getThroughputInBytesPerSecond measures the throughput over at least this
+	 * interval, so that a monitoring tool which polls too often gets a stable value
+	 */
+	private static final long MIN_THROUGHPUT_INTERVAL_IN_NS = 1_000_000_000L;
+
+	private final LongAdder numberOfBytes = new LongAdder();
+	private final LongAdder numberOfOperations = new LongAdder();
+	private final LongAdder[] operationSizeHistogram = new LongAdder[NUMBER_OF_SIZE_CLASSES];
+	private final AtomicReference<ThroughputSample> lastThroughputSample;
+
+	private ObjectName objectName;
+
+	public IOMetrics() {
+		for (int i = 0; i < operationSizeHistogram.length; i++) {
+			operationSizeHistogram[i] = new LongAdder();
+		}
+		lastThroughputSample = new AtomicReference<>(new ThroughputSample(System.nanoTime(), 0, 0));
+	}
+
+	/**
+	 * Records one operation (read or write) that has transferred a number of bytes
+	 */
+	public void record(long bytes) {
+		numberOfOperations.increment();
+		if (bytes > 0) {
+			numberOfBytes.add(bytes);
+		}
+		int sizeClass = bytes <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(bytes), NUMBER_OF_SIZE_CLASSES - 1);
+		operationSizeHistogram[sizeClass].increment();
+	}
+
+	@Override
+	public long getNumberOfBytes() {
+		return numberOfBytes.sum();
+	}
+
+	@Override
+	public long getNumberOfOperations() {
+		return numberOfOperations.sum();
+	}
+
+	@Override
+	public double getAverageOperationSize() {
+		long operations = getNumberOfOperations();
+		return operations == 0 ? 0 : (double) getNumberOfBytes() / operations;
+	}
+
+	@Override
+	public double getThroughputInBytesPerSecond() {
+		long now = System.nanoTime();
+		ThroughputSample last = lastThroughputSample.get();
+		long elapsedTime = now - last.timeInNs;
+		if (elapsedTime < MIN_THROUGHPUT_INTERVAL_IN_NS) {
+			return last.bytesPerSecond;
+		}
+		long bytes = getNumberOfBytes();
+		double bytesPerSecond = Math.max(0, bytes - last.numberOfBytes) * 1e9 / elapsedTime;
+		// If another thread has been faster, we simply keep its sample
+		lastThroughputSample.compareAndSet(last, new ThroughputSample(now, bytes, bytesPerSecond));
+		return bytesPerSecond;
+	}
+
+	@Override
+	public long[] getOperationSizeHistogram() {
+		long[] histogram = new long[operationSizeHistogram.length];
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = operationSizeHistogram[i].sum();
+		}
+		return histogram;
+	}
+
+	/**
+	 * Sets all the counters to 0. The counters are reset one after the other, so
+	 * a concurrent reader may see some counters reset and others not yet.
+	 */
+	@Override
+	public void reset() {
+		numberOfBytes.reset();
+		numberOfOperations.reset();
+		for (LongAdder sizeClass : operationSizeHistogram) {
+			sizeClass.reset();
+		}
+		lastThroughputSample.set(new ThroughputSample(System.nanoTime(), 0, 0));
+	}
+
+	/**
+	 * Publishes the metrics in the platform MBean server, with the object name
+	 * ch.heigvd.res.samples.io:type=IOMetrics,name=[name]
+	 */
+	public synchronized void register(String name) throws JMException {
+		if (objectName != null) {
+			throw new IllegalStateException("The metrics are already registered as " + objectName);
+		}
+		ObjectName newObjectName = new ObjectName("ch.heigvd.res.samples.io:type=IOMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, newObjectName);
+		objectName = newObjectName;
+	}
+
+	public synchronized void unregister() throws JMException {
+		if (objectName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getNumberOfBytes() + " bytes in " + getNumberOfOperations() + " operations";
+	}
+
+	private static class ThroughputSample {
+
+		private final long timeInNs;
+		private final long numberOfBytes;
+		private final double bytesPerSecond;
+
+		ThroughputSample(long timeInNs, long numberOfBytes, double bytesPerSecond) {
+			this.timeInNs = timeInNs;
+			this.numberOfBytes = numberOfBytes;
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+	}
+
+}
@@ -0,0 +1,34 @@
+package ch.heigvd.res.samples.io.metrics;
+
+/**
+ * The view of an IOMetrics instance that is published through JMX. Once the
+ * metrics have been registered, they can be watched live with jconsole or
+ * VisualVM (in the MBeans tab, under ch.heigvd.res.samples.io).
+ *
+ * @author Olivier Liechti
+ */
+public interface IOMetricsMXBean {
+
+	long getNumberOfBytes();
+
+	long getNumberOfOperations();
+
+	double getAverageOperationSize();
+
+	/**
+	 * @return the number of bytes per second, measured since the previous call
+	 * (or over a longer interval if the previous call is too recent)
+	 */
+	double getThroughputInBytesPerSecond();
+
+	/**
+	 * @return the number of operations per size class. Element 0 counts the
+	 * operations that did not transfer any byte (such as the read which detects
+	 * the end of a stream) and element i counts the operations that transferred
+	 * between 2^(i-1) and 2^i - 1 bytes.
+	 */
+	long[] getOperationSizeHistogram();
+
+	void reset();
+
+}
@@ -0,0 +1,54 @@
+package ch.heigvd.res.samples.io.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This filter records every read operation (and the number of bytes that it
+ * has returned) in an IOMetrics instance. The end of the stream counts as an
+ * operation of 0 bytes.
+ *
+ * @author Olivier Liechti
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+	private final IOMetrics metrics;
+
+	public MeteredInputStream(InputStream in) {
+		this(in, new IOMetrics());
+	}
+
+	/**
+	 * @param metrics the metrics to update, which can be shared with other
+	 * streams and channels
+	 */
+	public MeteredInputStream(InputStream in, IOMetrics metrics) {
+		super(in);
+		this.metrics = metrics;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int bytesRead = in.read(b, off, len);
+		metrics.record(bytesRead);
+		return bytesRead;
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int result = in.read();
+		metrics.record(result >= 0 ? 1 : 0);
+		return result;
+	}
+
+	public IOMetrics getMetrics() {
+		return metrics;
+	}
+
+}
@@ -0,0 +1,52 @@
+package ch.heigvd.res.samples.io.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This filter records every write operation (and the number of bytes that it
+ * has written) in an IOMetrics instance.
+ *
+ * @author Olivier Liechti
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+
+	private final IOMetrics metrics;
+
+	public MeteredOutputStream(OutputStream out) {
+		this(out, new IOMetrics());
+	}
+
+	/**
+	 * @param metrics the metrics to update, which can be shared with other
+	 * streams and channels
+	 */
+	public MeteredOutputStream(OutputStream out, IOMetrics metrics) {
+		super(out);
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		// FilterOutputStream would write the bytes one by one
+		out.write(b, off, len);
+		metrics.record(len);
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+		metrics.record(1);
+	}
+
+	public IOMetrics getMetrics() {
+		return metrics;
+	}
+
+}
@@ -0,0 +1,48 @@
+package ch.heigvd.res.samples.io.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * This channel records every read operation of the channel that it wraps in an
+ * IOMetrics instance.
+ *
+ * @author Olivier Liechti
+ */
+public class MeteredReadableByteChannel implements ReadableByteChannel {
+
+	private final ReadableByteChannel channel;
+	private final IOMetrics metrics;
+
+	public MeteredReadableByteChannel(ReadableByteChannel channel) {
+		this(channel, new IOMetrics());
+	}
+
+	public MeteredReadableByteChannel(ReadableByteChannel channel, IOMetrics metrics) {
+		this.channel = channel;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		int bytesRead = channel.read(dst);
+		metrics.record(bytesRead);
+		return bytesRead;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public IOMetrics getMetrics() {
+		return metrics;
+	}
+
+}
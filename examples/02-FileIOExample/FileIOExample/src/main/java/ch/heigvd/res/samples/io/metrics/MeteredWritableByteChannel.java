@@ -0,0 +1,48 @@
+package ch.heigvd.res.samples.io.metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This channel records every write operation of the channel that it wraps in
+ * an IOMetrics instance.
+ *
+ * @author Olivier Liechti
+ */
+public class MeteredWritableByteChannel implements WritableByteChannel {
+
+	private final WritableByteChannel channel;
+	private final IOMetrics metrics;
+
+	public MeteredWritableByteChannel(WritableByteChannel channel) {
+		this(channel, new IOMetrics());
+	}
+
+	public MeteredWritableByteChannel(WritableByteChannel channel, IOMetrics metrics) {
+		this.channel = channel;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public int write(ByteBuffer src) throws IOException {
+		int bytesWritten = channel.write(src);
+		metrics.record(bytesWritten);
+		return bytesWritten;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public IOMetrics getMetrics() {
+		return metrics;
+	}
+
+}
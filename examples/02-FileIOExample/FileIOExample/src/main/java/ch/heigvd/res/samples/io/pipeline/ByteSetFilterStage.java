@@ -0,0 +1,32 @@
+package ch.heigvd.res.samples.io.pipeline;
+
+import ch.heigvd.res.samples.io.ByteSetFilter;
+import java.nio.ByteBuffer;
+
+/**
+ * This stage removes the bytes that belong to a set of values, like
+ * SuperstitiousFilterOutputStream (which drops the bytes with the value 13).
+ *
+ * @author Olivier Liechti
+ */
+public class ByteSetFilterStage implements Stage {
+
+	private final ByteSetFilter filter;
+
+	private long numberOfBytesSkipped = 0;
+
+	public ByteSetFilterStage(byte... bytesToDrop) {
+		filter = new ByteSetFilter(bytesToDrop);
+	}
+
+	@Override
+	public void process(ByteBuffer block) {
+		int length = block.remaining();
+		numberOfBytesSkipped += length - filter.compact(block);
+	}
+
+	public long getNumberOfBytesSkipped() {
+		return numberOfBytesSkipped;
+	}
+
+}
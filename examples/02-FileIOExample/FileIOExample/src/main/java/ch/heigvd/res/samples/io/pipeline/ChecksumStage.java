@@ -0,0 +1,39 @@
+package ch.heigvd.res.samples.io.pipeline;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * This stage updates a checksum (for instance a java.util.zip.CRC32) with the
+ * bytes that go through it. The bytes are not modified.
+ *
+ * @author Olivier Liechti
+ */
+public class ChecksumStage implements Stage {
+
+	private final Checksum checksum;
+
+	public ChecksumStage(Checksum checksum) {
+		this.checksum = checksum;
+	}
+
+	@Override
+	public void process(ByteBuffer block) {
+		if (block.hasArray()) {
+			checksum.update(block.array(), block.arrayOffset() + block.position(), block.remaining());
+		} else {
+			for (int i = block.position(); i < block.limit(); i++) {
+				checksum.update(block.get(i));
+			}
+		}
+	}
+
+	public long getValue() {
+		return checksum.getValue();
+	}
+
+	public Checksum getChecksum() {
+		return checksum;
+	}
+
+}
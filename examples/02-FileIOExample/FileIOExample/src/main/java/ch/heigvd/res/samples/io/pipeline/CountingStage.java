@@ -0,0 +1,34 @@
+package ch.heigvd.res.samples.io.pipeline;
+
+import ch.heigvd.res.samples.io.metrics.IOMetrics;
+import java.nio.ByteBuffer;
+
+/**
+ * This stage counts the bytes and the blocks that go through it, like
+ * CountingFilterInputStream. The counters are kept in an IOMetrics instance, so
+ * that they can be read from another thread or published through JMX.
+ *
+ * @author Olivier Liechti
+ */
+public class CountingStage implements Stage {
+
+	private final IOMetrics metrics;
+
+	public CountingStage() {
+		this(new IOMetrics());
+	}
+
+	public CountingStage(IOMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void process(ByteBuffer block) {
+		metrics.record(block.remaining());
+	}
+
+	public IOMetrics getMetrics() {
+		return metrics;
+	}
+
+}
@@ -0,0 +1,117 @@
+package ch.heigvd.res.samples.io.pipeline;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pipeline applies a sequence of stages to blocks of bytes. It does the same
+ * job as a chain of filter streams (such as CountingFilterInputStream and
+ * SuperstitiousFilterOutputStream), but in a different way:
+ * <ul>
+ * <li>with filter streams, every layer has its own read or write method and
+ * often its own buffer, so the bytes are copied from layer to layer;</li>
+ * <li>with a pipeline, the block is read once, then every stage processes it
+ * in place, one after the other. The block is small enough to stay in the
+ * processor cache while the stages work on it, and it is written once.</li>
+ * </ul>
+ * A pipeline can be used to copy a stream (or a channel) to another one, or be
+ * plugged in existing code with PipelineInputStream and PipelineOutputStream.
+ * Since the stages have state (counters, checksums), a pipeline must only be
+ * used by one thread at a time.
+ *
+ * @author Olivier Liechti
+ */
+public class Pipeline {
+
+	public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+
+	private final Stage[] stages;
+	private final int blockSize;
+
+	public Pipeline(Stage... stages) {
+		this(DEFAULT_BLOCK_SIZE, stages);
+	}
+
+	/**
+	 * @param blockSize the size of the blocks used by the copy methods and by
+	 * PipelineOutputStream
+	 */
+	public Pipeline(int blockSize, Stage... stages) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException("The block size must be positive");
+		}
+		this.blockSize = blockSize;
+		this.stages = stages.clone();
+	}
+
+	public List<Stage> getStages() {
+		return Arrays.asList(stages.clone());
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Applies all the stages, in order, to the bytes between the position and the
+	 * limit of the block. When a stage has removed all the bytes, the next stages
+	 * are not called.
+	 */
+	public void process(ByteBuffer block) throws IOException {
+		for (Stage stage : stages) {
+			if (!block.hasRemaining()) {
+				return;
+			}
+			stage.process(block);
+		}
+	}
+
+	/**
+	 * Reads all the bytes of the input stream, sends them through the pipeline
+	 * and writes the result to the output stream.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[blockSize];
+		ByteBuffer block = ByteBuffer.wrap(buffer);
+		long totalBytes = 0;
+		int readBytes;
+		while ( (readBytes = in.read(buffer)) != -1 ) {
+			block.clear().limit(readBytes);
+			process(block);
+			out.write(buffer, 0, block.limit());
+			totalBytes += block.limit();
+		}
+		return totalBytes;
+	}
+
+	/**
+	 * Reads all the bytes of the input channel, sends them through the pipeline
+	 * and writes the result to the output channel.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long copy(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+		// A heap buffer, so that the stages can work directly on its array
+		ByteBuffer block = ByteBuffer.allocate(blockSize);
+		long totalBytes = 0;
+		while (in.read(block) != -1) {
+			block.flip();
+			process(block);
+			totalBytes += block.remaining();
+			while (block.hasRemaining()) {
+				out.write(block);
+			}
+			block.clear();
+		}
+		return totalBytes;
+	}
+
+}
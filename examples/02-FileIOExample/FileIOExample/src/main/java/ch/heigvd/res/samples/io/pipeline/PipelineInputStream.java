@@ -0,0 +1,78 @@
+package ch.heigvd.res.samples.io.pipeline;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This input stream sends the bytes read from the wrapped stream through a
+ * pipeline. The bytes are read directly into the array of the client, where the
+ * stages process them: there is no intermediate buffer.
+ *
+ * @author Olivier Liechti
+ */
+public class PipelineInputStream extends FilterInputStream {
+
+	private final Pipeline pipeline;
+	private final byte[] singleByte = new byte[1];
+
+	public PipelineInputStream(InputStream in, Pipeline pipeline) {
+		super(in);
+		this.pipeline = pipeline;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+			int readBytes = in.read(b, off, len);
+			if (readBytes == -1) {
+				return -1;
+			}
+			ByteBuffer block = ByteBuffer.wrap(b, off, readBytes);
+			pipeline.process(block);
+			// If a stage has removed all the bytes, we have to read more
+			if (block.hasRemaining()) {
+				return block.remaining();
+			}
+		}
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int result = read(singleByte, 0, 1);
+		return result == -1 ? -1 : singleByte[0] & 0xFF;
+	}
+
+	/**
+	 * Skipped bytes also have to go through the stages (for instance to be
+	 * counted), so we read them.
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		byte[] skipped = new byte[(int) Math.min(n, pipeline.getBlockSize())];
+		long totalSkipped = 0;
+		while (totalSkipped < n) {
+			int readBytes = read(skipped, 0, (int) Math.min(n - totalSkipped, skipped.length));
+			if (readBytes == -1) {
+				break;
+			}
+			totalSkipped += readBytes;
+		}
+		return totalSkipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+}
@@ -0,0 +1,62 @@
+package ch.heigvd.res.samples.io.pipeline;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This output stream sends the bytes written by the client through a pipeline
+ * before passing them to the wrapped stream. The stages may modify the bytes,
+ * so we cannot work in the array of the client: the bytes are copied into a
+ * buffer of the stream, block by block.
+ *
+ * @author Olivier Liechti
+ */
+public class PipelineOutputStream extends FilterOutputStream {
+
+	private final Pipeline pipeline;
+	private final byte[] buffer;
+	private final ByteBuffer block;
+
+	public PipelineOutputStream(OutputStream out, Pipeline pipeline) {
+		super(out);
+		this.pipeline = pipeline;
+		this.buffer = new byte[pipeline.getBlockSize()];
+		this.block = ByteBuffer.wrap(buffer);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off + len > b.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		while (len > 0) {
+			int chunkLength = Math.min(len, buffer.length);
+			System.arraycopy(b, off, buffer, 0, chunkLength);
+			writeBlock(chunkLength);
+			off += chunkLength;
+			len -= chunkLength;
+		}
+	}
+
+	@Override
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		buffer[0] = (byte) b;
+		writeBlock(1);
+	}
+
+	private void writeBlock(int length) throws IOException {
+		block.clear().limit(length);
+		pipeline.process(block);
+		if (block.hasRemaining()) {
+			out.write(buffer, 0, block.limit());
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package ch.heigvd.res.samples.io.pipeline;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A step of a Pipeline. A stage receives a block of bytes (the bytes between
+ * the position and the limit of a ByteBuffer) and processes them in place: it
+ * can look at them (to count them or to compute a checksum), modify them, or
+ * remove some of them by moving the limit. It must leave the position where it
+ * was.
+ *
+ * @author Olivier Liechti
+ */
+public interface Stage {
+
+	void process(ByteBuffer block) throws IOException;
+
+}
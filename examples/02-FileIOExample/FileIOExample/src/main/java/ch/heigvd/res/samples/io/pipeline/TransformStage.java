@@ -0,0 +1,43 @@
+package ch.heigvd.res.samples.io.pipeline;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * This stage replaces every byte by another one, for instance to convert ASCII
+ * text to upper case. The function is only called 256 times, when the stage is
+ * created, to fill a lookup table: processing a byte then costs a single array
+ * access.
+ *
+ * @author Olivier Liechti
+ */
+public class TransformStage implements Stage {
+
+	private final byte[] table = new byte[256];
+
+	/**
+	 * @param function receives a byte value (between 0 and 255) and returns the
+	 * value that replaces it (only the lowest 8 bits are used)
+	 */
+	public TransformStage(IntUnaryOperator function) {
+		for (int b = 0; b < 256; b++) {
+			table[b] = (byte) function.applyAsInt(b);
+		}
+	}
+
+	@Override
+	public void process(ByteBuffer block) {
+		if (block.hasArray()) {
+			byte[] array = block.array();
+			int end = block.arrayOffset() + block.limit();
+			for (int i = block.arrayOffset() + block.position(); i < end; i++) {
+				array[i] = table[array[i] & 0xFF];
+			}
+		} else {
+			for (int i = block.position(); i < block.limit(); i++) {
+				block.put(i, table[block.get(i) & 0xFF]);
+			}
+		}
+	}
+
+}
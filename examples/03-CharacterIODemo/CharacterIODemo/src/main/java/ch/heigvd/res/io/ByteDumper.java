@@ -0,0 +1,290 @@
+package ch.heigvd.res.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class shows the value of bytes as text, like the xxd command. It can
+ * dump files of several gigabytes: the bytes are read block by block, and the
+ * text of a whole block is written with a single call.
+ * <p>
+ * Calling String.format and Integer.toBinaryString for every byte, like the
+ * first version of CharacterIODemo.dumpByteArray did, is very slow: the format
+ * string is parsed every time, and several Strings are created for every byte.
+ * Here, the text of every possible byte value (256 of them) is computed once,
+ * in lookup tables, when the class is loaded. Dumping a byte is then only a
+ * matter of copying a few characters from a table into the output buffer. The
+ * output only contains ASCII characters, so the buffer contains bytes, which
+ * can be written as they are. The characters of a byte are stored in an int or
+ * in a long, so that they are copied with a single write (putInt or putLong)
+ * instead of one write per character.
+ * <p>
+ * Three formats are available:
+ * <ul>
+ * <li>HEX: 16 bytes per line, in hexadecimal, like "xxd -g 1";</li>
+ * <li>BINARY: 6 bytes per line, in binary, like "xxd -b";</li>
+ * <li>BINARY_AND_DECIMAL: one byte per line, in binary and in decimal (the
+ * value of a Java byte, between -128 and 127), like the first version of
+ * CharacterIODemo.dumpByteArray.</li>
+ * </ul>
+ * The HEX and BINARY lines start with the offset of the first byte, and end
+ * with the bytes shown as ASCII characters ('.' if they cannot be printed).
+ * <p>
+ * The input and output buffers are allocated once, with the dumper. A dumper is
+ * thus not thread-safe.
+ *
+ * @author Olivier Liechti
+ */
+public class ByteDumper {
+
+	public enum Format {
+
+		HEX(16), BINARY(6), BINARY_AND_DECIMAL(1);
+
+		private final int bytesPerLine;
+
+		private Format(int bytesPerLine) {
+			this.bytesPerLine = bytesPerLine;
+		}
+
+	}
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The text of every byte value in the HEX format ("4a  "), as the 4 bytes of
+	 * an int
+	 */
+	private static final int[] HEX_WORDS = new int[256];
+
+	/**
+	 * The text of every byte value in the BINARY format ("01001010"), as the 8
+	 * bytes of a long
+	 */
+	private static final long[] BINARY_WORDS = new long[256];
+
+	/**
+	 * The line of every byte value in the BINARY_AND_DECIMAL format
+	 * ("01001010     74\n"), as the 16 bytes of two longs
+	 */
+	private static final long[] BINARY_AND_DECIMAL_WORDS = new long[256 * 2];
+
+	/**
+	 * The character shown for every byte value at the end of the lines
+	 */
+	private static final byte[] PRINTABLE = new byte[256];
+
+	/**
+	 * The longest offset has 16 hex digits
+	 */
+	private static final int MAX_OFFSET_LENGTH = 16 + 2;
+
+	static {
+		// The words are read in the order of a ByteBuffer (big endian)
+		for (int b = 0; b < 256; b++) {
+			String binary = String.format("%8s", Integer.toBinaryString(b)).replace(' ', '0');
+			ByteBuffer text = ByteBuffer.wrap((binary + "  " + String.format("%5s", (byte) b) + "\n").getBytes(StandardCharsets.US_ASCII));
+			BINARY_AND_DECIMAL_WORDS[b * 2] = text.getLong(0);
+			BINARY_AND_DECIMAL_WORDS[b * 2 + 1] = text.getLong(8);
+			BINARY_WORDS[b] = text.getLong(0);
+			HEX_WORDS[b] = HEX_DIGITS[b >>> 4] << 24 | HEX_DIGITS[b & 0xF] << 16 | ' ' << 8 | ' ';
+			PRINTABLE[b] = (byte) (b >= 0x20 && b < 0x7F ? b : '.');
+		}
+	}
+
+	private final Format format;
+	private final int cellLength;
+	private final int maxLineLength;
+
+	private final byte[] inputBuffer;
+	private final ByteBuffer wrappedInputBuffer;
+	private final byte[] outputBuffer;
+	private final ByteBuffer wrappedOutputBuffer;
+
+	public ByteDumper() {
+		this(Format.HEX);
+	}
+
+	public ByteDumper(Format format) {
+		this(format, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param bufferSize the number of bytes read (and dumped) at once. It is
+	 * rounded to a whole number of lines.
+	 */
+	public ByteDumper(Format format, int bufferSize) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("The buffer size must be positive");
+		}
+		this.format = format;
+		switch (format) {
+			case HEX:
+				cellLength = 3;
+				break;
+			case BINARY:
+				cellLength = 9;
+				break;
+			default:
+				cellLength = 16;
+		}
+		int bytesPerLine = format.bytesPerLine;
+		maxLineLength = format == Format.BINARY_AND_DECIMAL ? cellLength
+			: MAX_OFFSET_LENGTH + bytesPerLine * cellLength + 1 + bytesPerLine + 1;
+		int numberOfLines = Math.max(1, bufferSize / bytesPerLine);
+		inputBuffer = new byte[numberOfLines * bytesPerLine];
+		wrappedInputBuffer = ByteBuffer.wrap(inputBuffer);
+		// One more byte, because the last HEX cell is written as 4 bytes
+		outputBuffer = new byte[numberOfLines * maxLineLength + 1];
+		wrappedOutputBuffer = ByteBuffer.wrap(outputBuffer);
+	}
+
+	/**
+	 * Dumps bytes from an array
+	 */
+	public void dump(byte[] data, int offset, int length, OutputStream out) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		for (int dumped = 0; dumped < length; dumped += inputBuffer.length) {
+			int n = Math.min(inputBuffer.length, length - dumped);
+			out.write(outputBuffer, 0, render(dumped, data, offset + dumped, n));
+		}
+		out.flush();
+	}
+
+	/**
+	 * Dumps all the bytes of a stream. The streams are not closed.
+	 *
+	 * @return the number of bytes dumped
+	 */
+	public long dump(InputStream in, OutputStream out) throws IOException {
+		long dumped = 0;
+		while (true) {
+			// We fill the input buffer, so that only the last line can be incomplete
+			int n = 0;
+			int r;
+			while (n < inputBuffer.length && (r = in.read(inputBuffer, n, inputBuffer.length - n)) != -1) {
+				n += r;
+			}
+			if (n == 0) {
+				break;
+			}
+			out.write(outputBuffer, 0, render(dumped, inputBuffer, 0, n));
+			dumped += n;
+			if (n < inputBuffer.length) {
+				break;
+			}
+		}
+		out.flush();
+		return dumped;
+	}
+
+	/**
+	 * Dumps all the bytes of a channel. The channels are not closed.
+	 *
+	 * @return the number of bytes dumped
+	 */
+	public long dump(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+		long dumped = 0;
+		while (true) {
+			wrappedInputBuffer.clear();
+			while (wrappedInputBuffer.hasRemaining() && in.read(wrappedInputBuffer) != -1) {
+				// We fill the input buffer, so that only the last line can be incomplete
+			}
+			int n = wrappedInputBuffer.position();
+			if (n == 0) {
+				break;
+			}
+			wrappedOutputBuffer.clear().limit(render(dumped, inputBuffer, 0, n));
+			while (wrappedOutputBuffer.hasRemaining()) {
+				out.write(wrappedOutputBuffer);
+			}
+			dumped += n;
+			if (n < inputBuffer.length) {
+				break;
+			}
+		}
+		return dumped;
+	}
+
+	/**
+	 * Writes the text of length bytes into the output buffer
+	 *
+	 * @param position the offset of the first byte, shown at the beginning of the
+	 * lines
+	 * @return the number of bytes of text
+	 */
+	private int render(long position, byte[] data, int from, int length) {
+		int p = 0;
+		if (format == Format.BINARY_AND_DECIMAL) {
+			for (int i = from; i < from + length; i++) {
+				int b = data[i] & 0xFF;
+				wrappedOutputBuffer.putLong(p, BINARY_AND_DECIMAL_WORDS[b * 2]);
+				wrappedOutputBuffer.putLong(p + 8, BINARY_AND_DECIMAL_WORDS[b * 2 + 1]);
+				p += 16;
+			}
+			return p;
+		}
+		int bytesPerLine = format.bytesPerLine;
+		for (int lineStart = 0; lineStart < length; lineStart += bytesPerLine) {
+			int n = Math.min(bytesPerLine, length - lineStart);
+			p = renderOffset(position + lineStart, p);
+			int start = from + lineStart;
+			if (format == Format.HEX) {
+				for (int i = start; i < start + n; i++) {
+					// The 4th byte is overwritten by the next cell (or by the end of the line)
+					wrappedOutputBuffer.putInt(p, HEX_WORDS[data[i] & 0xFF]);
+					p += 3;
+				}
+			} else {
+				for (int i = start; i < start + n; i++) {
+					wrappedOutputBuffer.putLong(p, BINARY_WORDS[data[i] & 0xFF]);
+					outputBuffer[p + 8] = ' ';
+					p += 9;
+				}
+			}
+			// An incomplete line is padded, so that the characters are aligned
+			for (int i = n * cellLength; i < bytesPerLine * cellLength; i++) {
+				outputBuffer[p++] = ' ';
+			}
+			outputBuffer[p++] = ' ';
+			for (int i = start; i < start + n; i++) {
+				outputBuffer[p++] = PRINTABLE[data[i] & 0xFF];
+			}
+			outputBuffer[p++] = '\n';
+		}
+		return p;
+	}
+
+	/**
+	 * Writes the offset in hexadecimal (at least 8 digits), followed by ": "
+	 */
+	private int renderOffset(long offset, int p) {
+		if (offset >>> 32 == 0) {
+			// The usual case: 8 digits, written 4 at a time with the digits of the HEX
+			// table (in its 2 high bytes)
+			int o = (int) offset;
+			wrappedOutputBuffer.putInt(p, HEX_WORDS[o >>> 24] & 0xFFFF0000 | HEX_WORDS[(o >>> 16) & 0xFF] >>> 16);
+			wrappedOutputBuffer.putInt(p + 4, HEX_WORDS[(o >>> 8) & 0xFF] & 0xFFFF0000 | HEX_WORDS[o & 0xFF] >>> 16);
+			outputBuffer[p + 8] = ':';
+			outputBuffer[p + 9] = ' ';
+			return p + 10;
+		}
+		int digits = Math.max(8, (64 - Long.numberOfLeadingZeros(offset) + 3) / 4);
+		for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+			outputBuffer[p++] = HEX_DIGITS[(int) (offset >>> shift) & 0xF];
+		}
+		outputBuffer[p++] = ':';
+		outputBuffer[p++] = ' ';
+		return p;
+	}
+
+}
@@ -1,8 +1,16 @@
 package ch.heigvd.res.io;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,9 +26,19 @@ import java.util.logging.Logger;
  * It is a good idea to run this program in debug mode, to be able to explore the
  * memory representations of the manipulated strings.
  * 
+ * With the arguments "transcode &lt;source&gt; &lt;source encoding&gt; &lt;target&gt;
+ * &lt;target encoding&gt; [REPORT|REPLACE|IGNORE]", the program converts a file
+ * from one encoding to another with a StreamingTranscoder. With the arguments
+ * "validate &lt;file&gt;", it checks that a file is valid UTF-8 (and if it is pure
+ * ASCII) with a Utf8Validator. With the arguments "dump &lt;file&gt;
+ * [HEX|BINARY]", it dumps the bytes of a file on the standard output (like
+ * xxd) with a ByteDumper.
+ * 
  * @author Olivier Liechti
  */
 public class CharacterIODemo {
+
+	private final ByteDumper dumper = new ByteDumper(ByteDumper.Format.BINARY_AND_DECIMAL);
 	
 	/**
 	 * This method manipulates the Unicode string passed in parameter. It first
@@ -78,23 +96,32 @@ public class CharacterIODemo {
 	
 	/**
 	 * A utility method to dump a byte array (showing the binary and decimal values)
-	 * onto the console.
+	 * onto the console. The text of every byte value is prepared once, by the
+	 * ByteDumper, instead of being formatted again for every byte.
 	 * 
 	 * @param array the byte array we want to show 
 	 */
-	private void dumpByteArray(byte[] array) {
-		for (int i=0; i<array.length; i++) {
-			String s1 = String.format("%8s", Integer.toBinaryString(array[i] & 0xFF)).replace(' ', '0');
-			String s2 = String.format("%5s", array[i]).replace(' ', ' ');
-			System.out.print(s1 + "  " + s2 + "\n");
-		}
-		
+	private void dumpByteArray(byte[] array) throws IOException {
+		dumper.dump(array, 0, array.length, System.out);
 	}
 
 	/**
 	 * @param args the command line arguments
 	 */
 	public static void main(String[] args) {
+		if (args.length >= 5 && "transcode".equals(args[0])) {
+			transcode(args);
+			return;
+		}
+		if (args.length >= 2 && "dump".equals(args[0])) {
+			dump(args[1], args.length > 2 ? ByteDumper.Format.valueOf(args[2]) : ByteDumper.Format.HEX);
+			return;
+		}
+		if (args.length >= 2 && "validate".equals(args[0])) {
+			validate(args[1]);
+			return;
+		}
+
 		CharacterIODemo demo = new CharacterIODemo();
 		
 		// Let's see how 1) plain latin characters, 2) characters with accents 
@@ -120,5 +147,79 @@ public class CharacterIODemo {
 			Logger.getLogger(CharacterIODemo.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
+
+	/**
+	 * Converts a file from one encoding to another, for instance:
+	 * transcode export.txt ISO-8859-15 export-utf8.txt UTF-8 REPLACE
+	 */
+	private static void transcode(String[] args) {
+		CodingErrorAction errorAction = CodingErrorAction.REPORT;
+		if (args.length > 5) {
+			switch (args[5]) {
+				case "REPLACE":
+					errorAction = CodingErrorAction.REPLACE;
+					break;
+				case "IGNORE":
+					errorAction = CodingErrorAction.IGNORE;
+					break;
+				default:
+					errorAction = CodingErrorAction.REPORT;
+			}
+		}
+		StreamingTranscoder transcoder = new StreamingTranscoder(Charset.forName(args[2]), Charset.forName(args[4]), errorAction, StreamingTranscoder.DEFAULT_BUFFER_SIZE);
+		try {
+			transcoder.transcode(new File(args[1]), new File(args[3]));
+			Logger.getLogger(CharacterIODemo.class.getName()).log(Level.INFO, transcoder.toString());
+		} catch (IOException ex) {
+			Logger.getLogger(CharacterIODemo.class.getName()).log(Level.SEVERE, "Transcoding stopped after reading " + transcoder.getNumberOfBytesRead() + " bytes", ex);
+		}
+	}
+
+	/**
+	 * Checks that a file is valid UTF-8, reading it in blocks of 64 KB. A
+	 * character can be split between two blocks: the validator remembers it.
+	 */
+	private static void validate(String filename) {
+		Utf8Validator validator = new Utf8Validator();
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long startTime = System.nanoTime();
+		try (FileInputStream is = new FileInputStream(filename); FileChannel channel = is.getChannel()) {
+			while (channel.read(buffer) >= 0 && validator.getErrorOffset() < 0) {
+				buffer.flip();
+				validator.update(buffer);
+				buffer.clear();
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(CharacterIODemo.class.getName()).log(Level.SEVERE, null, ex);
+			return;
+		}
+		long elapsedTimeInNs = System.nanoTime() - startTime;
+		String result = validator.isAscii() ? "pure ASCII" : validator.isValid() ? "valid UTF-8"
+			: validator.getErrorOffset() >= 0 ? "not valid UTF-8 (invalid byte at offset " + validator.getErrorOffset() + ")"
+			: "not valid UTF-8 (the last character is incomplete)";
+		Logger.getLogger(CharacterIODemo.class.getName()).log(Level.INFO, "{0} is {1}: {2} bytes checked in {3} ms ({4} MB/s)", new Object[]{filename, result,
+			validator.getNumberOfBytes(), elapsedTimeInNs / 1000000, String.format("%.1f", validator.getNumberOfBytes() * 1e9 / elapsedTimeInNs / (1024 * 1024))});
+	}
+
+	/**
+	 * Dumps a file on the standard output. The text is written directly to the
+	 * file descriptor, in large blocks, and the statistics are logged on the
+	 * standard error.
+	 */
+	private static void dump(String filename, ByteDumper.Format format) {
+		ByteDumper dumper = new ByteDumper(format);
+		long startTime = System.nanoTime();
+		long numberOfBytes;
+		try (FileInputStream is = new FileInputStream(filename); FileChannel in = is.getChannel();
+			FileOutputStream os = new FileOutputStream(FileDescriptor.out); FileChannel out = os.getChannel()) {
+			numberOfBytes = dumper.dump(in, out);
+		} catch (IOException ex) {
+			Logger.getLogger(CharacterIODemo.class.getName()).log(Level.SEVERE, null, ex);
+			return;
+		}
+		long elapsedTimeInNs = System.nanoTime() - startTime;
+		Logger.getLogger(CharacterIODemo.class.getName()).log(Level.INFO, "{0} bytes dumped in {1} ms ({2} MB/s)", new Object[]{numberOfBytes,
+			elapsedTimeInNs / 1000000, String.format("%.1f", numberOfBytes * 1e9 / elapsedTimeInNs / (1024 * 1024))});
+	}
 	
 }
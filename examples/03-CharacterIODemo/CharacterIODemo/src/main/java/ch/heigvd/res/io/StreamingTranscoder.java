@@ -0,0 +1,245 @@
+package ch.heigvd.res.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * This class converts text from one encoding to another (for instance from
+ * ISO-8859-15 to UTF-8), without ever holding the whole text in memory. It does
+ * what CharacterIODemo.encodeAndDecode does with a String, but for files of any
+ * size.
+ * <p>
+ * The bytes are read in a ByteBuffer, decoded into a CharBuffer by a
+ * CharsetDecoder, and the characters are encoded into another ByteBuffer by a
+ * CharsetEncoder, which is written when it is full. The decoder, the encoder
+ * and the three buffers are created once, with the transcoder, and reused for
+ * every file: there is no String, no byte array and no Writer created per
+ * message. The memory used does not depend on the size of the file.
+ * <p>
+ * A character can be split between two reads (a UTF-8 sequence of 3 bytes, for
+ * instance, or a surrogate pair in UTF-16). This is not a problem: the decoder
+ * leaves the incomplete bytes in the input buffer, and we keep them (with
+ * compact) until the next bytes have been read.
+ * <p>
+ * The error action says what to do with bytes that are not valid in the source
+ * encoding, and with characters that do not exist in the target encoding:
+ * REPORT throws a CharacterCodingException, REPLACE writes a replacement
+ * character (often '?') and IGNORE drops them.
+ * <p>
+ * A transcoder is not thread-safe: every thread needs its own instance.
+ *
+ * @author Olivier Liechti
+ */
+public class StreamingTranscoder {
+
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The smallest buffers that can hold any encoded character
+	 */
+	private static final int MIN_BUFFER_SIZE = 16;
+
+	private final CharsetDecoder decoder;
+	private final CharsetEncoder encoder;
+	private final ByteBuffer inputBytes;
+	private final CharBuffer chars;
+	private final ByteBuffer outputBytes;
+
+	private long numberOfBytesRead;
+	private long numberOfChars;
+	private long numberOfBytesWritten;
+	private long elapsedTimeInNs;
+
+	public StreamingTranscoder(Charset sourceCharset, Charset targetCharset) {
+		this(sourceCharset, targetCharset, CodingErrorAction.REPORT, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param errorAction what to do with malformed input and with unmappable
+	 * characters (REPORT, REPLACE or IGNORE)
+	 * @param bufferSize the size of the byte buffers and of the char buffer
+	 */
+	public StreamingTranscoder(Charset sourceCharset, Charset targetCharset, CodingErrorAction errorAction, int bufferSize) {
+		if (bufferSize < MIN_BUFFER_SIZE) {
+			throw new IllegalArgumentException("The buffer size must be at least " + MIN_BUFFER_SIZE);
+		}
+		decoder = sourceCharset.newDecoder()
+			.onMalformedInput(errorAction)
+			.onUnmappableCharacter(errorAction);
+		encoder = targetCharset.newEncoder()
+			.onMalformedInput(errorAction)
+			.onUnmappableCharacter(errorAction);
+		inputBytes = ByteBuffer.allocate(bufferSize);
+		chars = CharBuffer.allocate(bufferSize);
+		outputBytes = ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * Transcodes a file into another file
+	 *
+	 * @return the number of bytes written
+	 */
+	public long transcode(File source, File target) throws IOException {
+		try (FileInputStream is = new FileInputStream(source);
+			FileOutputStream os = new FileOutputStream(target);
+			FileChannel sourceChannel = is.getChannel();
+			FileChannel targetChannel = os.getChannel()) {
+			return transcode(sourceChannel, targetChannel);
+		}
+	}
+
+	/**
+	 * Transcodes all the bytes of a stream into another stream. The streams are
+	 * not closed.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long transcode(InputStream source, OutputStream target) throws IOException {
+		long bytesWritten = transcode(Channels.newChannel(source), Channels.newChannel(target));
+		target.flush();
+		return bytesWritten;
+	}
+
+	/**
+	 * Transcodes all the bytes of a channel into another channel. The channels are
+	 * not closed.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long transcode(ReadableByteChannel source, WritableByteChannel target) throws IOException {
+		long startTime = System.nanoTime();
+		numberOfBytesRead = 0;
+		numberOfChars = 0;
+		numberOfBytesWritten = 0;
+		decoder.reset();
+		encoder.reset();
+		inputBytes.clear();
+		chars.clear();
+		outputBytes.clear();
+		try {
+			boolean endOfInput = false;
+			while (!endOfInput) {
+				int n = source.read(inputBytes);
+				if (n < 0) {
+					endOfInput = true;
+				} else {
+					numberOfBytesRead += n;
+				}
+				inputBytes.flip();
+				// We decode as much as we can. When the char buffer is full, we encode the
+				// chars to make room, and continue.
+				while (true) {
+					CoderResult result = decoder.decode(inputBytes, chars, endOfInput);
+					if (result.isError()) {
+						result.throwException();
+					}
+					encodeChars(target, false);
+					if (result.isUnderflow()) {
+						break;
+					}
+				}
+				inputBytes.compact();
+			}
+			while (decoder.flush(chars).isOverflow()) {
+				encodeChars(target, false);
+			}
+			encodeChars(target, true);
+			while (encoder.flush(outputBytes).isOverflow()) {
+				writeOutputBytes(target);
+			}
+			writeOutputBytes(target);
+		} finally {
+			elapsedTimeInNs = System.nanoTime() - startTime;
+		}
+		return numberOfBytesWritten;
+	}
+
+	/**
+	 * Encodes the chars decoded so far. If the last char is the first half of a
+	 * surrogate pair, it stays in the buffer until the second half is decoded.
+	 */
+	private void encodeChars(WritableByteChannel target, boolean endOfInput) throws IOException {
+		chars.flip();
+		while (true) {
+			int start = chars.position();
+			CoderResult result = encoder.encode(chars, outputBytes, endOfInput);
+			numberOfChars += chars.position() - start;
+			if (result.isError()) {
+				result.throwException();
+			}
+			if (result.isUnderflow()) {
+				break;
+			}
+			writeOutputBytes(target);
+		}
+		chars.compact();
+	}
+
+	private void writeOutputBytes(WritableByteChannel target) throws IOException {
+		outputBytes.flip();
+		while (outputBytes.hasRemaining()) {
+			numberOfBytesWritten += target.write(outputBytes);
+		}
+		outputBytes.clear();
+	}
+
+	/**
+	 * @return the number of bytes read during the last transcoding
+	 */
+	public long getNumberOfBytesRead() {
+		return numberOfBytesRead;
+	}
+
+	/**
+	 * @return the number of chars decoded (and encoded) during the last
+	 * transcoding
+	 */
+	public long getNumberOfChars() {
+		return numberOfChars;
+	}
+
+	/**
+	 * @return the number of bytes written during the last transcoding
+	 */
+	public long getNumberOfBytesWritten() {
+		return numberOfBytesWritten;
+	}
+
+	public long getElapsedTimeInNs() {
+		return elapsedTimeInNs;
+	}
+
+	public double getCharsPerSecond() {
+		return elapsedTimeInNs == 0 ? 0 : numberOfChars * 1e9 / elapsedTimeInNs;
+	}
+
+	/**
+	 * @return the number of bytes read per second
+	 */
+	public double getBytesPerSecond() {
+		return elapsedTimeInNs == 0 ? 0 : numberOfBytesRead * 1e9 / elapsedTimeInNs;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s -> %s: %d bytes read, %d chars, %d bytes written in %d ms (%.1f Mchars/s, %.1f MB/s)",
+			decoder.charset(), encoder.charset(), numberOfBytesRead, numberOfChars, numberOfBytesWritten,
+			elapsedTimeInNs / 1000000, getCharsPerSecond() / 1e6, getBytesPerSecond() / (1024 * 1024));
+	}
+
+}
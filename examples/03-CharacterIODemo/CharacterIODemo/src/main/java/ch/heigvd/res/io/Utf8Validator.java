@@ -0,0 +1,287 @@
+package ch.heigvd.res.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class checks that a sequence of bytes is valid UTF-8, and tells if it is
+ * pure ASCII, without decoding it. This is much cheaper than asking a
+ * CharsetDecoder to produce the characters and throwing them away.
+ * <p>
+ * In UTF-8, the characters of the ASCII table are encoded with a single byte,
+ * between 0 and 127 (the high bit is 0). The other characters are encoded
+ * with a sequence of 2, 3 or 4 bytes: a leading byte, which gives the length of
+ * the sequence, followed by continuation bytes, between 0x80 and 0xBF. Not all
+ * sequences are valid: a character must be encoded with the shortest possible
+ * sequence ("overlong" encodings such as C0 80 for 0 are forbidden), the
+ * surrogates (D800 to DFFF) cannot be encoded, and nothing can be larger than
+ * 10FFFF. This is why, after some leading bytes, the range of the first
+ * continuation byte is smaller than 0x80 to 0xBF (see table 3-7 of the Unicode
+ * standard).
+ * <p>
+ * Most texts are made of ASCII characters. We thus read the bytes 8 at a time,
+ * as a long: if none of the 8 high bits is set (word &amp; 0x8080808080808080 is
+ * 0), the 8 bytes are ASCII and we can skip them at once. We only look at the
+ * bytes one by one when we find a byte that is not ASCII, with a small state
+ * machine.
+ * <p>
+ * The state machine remembers how many continuation bytes are expected. A
+ * character can thus be split between two buffers: the validator can be
+ * updated buffer after buffer, as the bytes arrive. A validator is not
+ * thread-safe.
+ *
+ * @author Olivier Liechti
+ */
+public class Utf8Validator {
+
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	private static final int MIN_CONTINUATION = 0x80;
+	private static final int MAX_CONTINUATION = 0xBF;
+
+	/**
+	 * The number of continuation bytes that we still expect
+	 */
+	private int pendingBytes = 0;
+
+	/**
+	 * The range of values allowed for the next continuation byte
+	 */
+	private int min = MIN_CONTINUATION;
+	private int max = MAX_CONTINUATION;
+
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	/**
+	 * Only used to validate direct buffers
+	 */
+	private byte[] copyBuffer;
+	private ByteBuffer wrappedCopyBuffer;
+
+	private boolean ascii = true;
+	private long numberOfBytes = 0;
+	private long errorOffset = -1;
+
+	/**
+	 * @return true if the bytes are valid UTF-8 (and do not end in the middle of
+	 * a character)
+	 */
+	public static boolean isValidUtf8(byte[] bytes) {
+		Utf8Validator validator = new Utf8Validator();
+		validator.update(bytes, 0, bytes.length);
+		return validator.isValid();
+	}
+
+	/**
+	 * @return true if all the bytes are between 0 and 127
+	 */
+	public static boolean isAscii(byte[] bytes, int offset, int length) {
+		return isAscii(ByteBuffer.wrap(bytes), offset, offset + length);
+	}
+
+	/**
+	 * @return true if all the bytes between the position and the limit of the
+	 * buffer are between 0 and 127. The position of the buffer is not modified.
+	 */
+	public static boolean isAscii(ByteBuffer buffer) {
+		return isAscii(buffer, buffer.position(), buffer.limit());
+	}
+
+	private static boolean isAscii(ByteBuffer buffer, int from, int to) {
+		return skipAscii(buffer, from, to) == to;
+	}
+
+	/**
+	 * @return the index of the first byte that is not ASCII between from and to,
+	 * or to if there is none
+	 */
+	private static int skipAscii(ByteBuffer buffer, int from, int to) {
+		int i = from;
+		// 32 bytes per iteration: the loads are independent, so the processor can
+		// do them in parallel, and we only test the result once
+		for (; i + 32 <= to; i += 32) {
+			long words = buffer.getLong(i) | buffer.getLong(i + 8) | buffer.getLong(i + 16) | buffer.getLong(i + 24);
+			if ((words & HIGH_BITS) != 0) {
+				break;
+			}
+		}
+		for (; i + 8 <= to; i += 8) {
+			if ((buffer.getLong(i) & HIGH_BITS) != 0) {
+				break;
+			}
+		}
+		for (; i < to; i++) {
+			if (buffer.get(i) < 0) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Validates the next bytes of the sequence
+	 *
+	 * @return false if an invalid byte has been found (in these bytes or before)
+	 */
+	public boolean update(byte[] bytes, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > bytes.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		return update(bytes, ByteBuffer.wrap(bytes), offset, offset + length);
+	}
+
+	/**
+	 * Validates the bytes between the position and the limit of the buffer. The
+	 * position is moved to the limit.
+	 *
+	 * @return false if an invalid byte has been found (in these bytes or before)
+	 */
+	public boolean update(ByteBuffer buffer) {
+		boolean valid;
+		if (buffer.hasArray()) {
+			int offset = buffer.arrayOffset();
+			valid = update(buffer.array(), ByteBuffer.wrap(buffer.array()), offset + buffer.position(), offset + buffer.limit());
+		} else {
+			// A direct buffer: we copy its bytes into an array, block by block
+			if (copyBuffer == null) {
+				copyBuffer = new byte[COPY_BUFFER_SIZE];
+				wrappedCopyBuffer = ByteBuffer.wrap(copyBuffer);
+			}
+			valid = true;
+			while (valid && buffer.hasRemaining()) {
+				int length = Math.min(buffer.remaining(), copyBuffer.length);
+				buffer.get(copyBuffer, 0, length);
+				valid = update(copyBuffer, wrappedCopyBuffer, 0, length);
+			}
+		}
+		buffer.position(buffer.limit());
+		return valid;
+	}
+
+	private boolean update(byte[] bytes, ByteBuffer words, int from, int to) {
+		if (errorOffset >= 0) {
+			return false;
+		}
+		int i = from;
+		while (i < to) {
+			if (pendingBytes > 0) {
+				// The end of a character that started in the previous bytes
+				int c = bytes[i] & 0xFF;
+				if (c < min || c > max) {
+					return error(i, from);
+				}
+				pendingBytes--;
+				min = MIN_CONTINUATION;
+				max = MAX_CONTINUATION;
+				i++;
+				continue;
+			}
+			int b = bytes[i];
+			if (b >= 0) {
+				i = skipAscii(words, i, to);
+				continue;
+			}
+			ascii = false;
+			b &= 0xFF;
+			int continuationBytes;
+			int minOfNextByte = MIN_CONTINUATION;
+			int maxOfNextByte = MAX_CONTINUATION;
+			if (b < 0xC2) {
+				// A continuation byte without a leading byte, or an overlong 2 bytes sequence
+				return error(i, from);
+			} else if (b < 0xE0) {
+				continuationBytes = 1;
+			} else if (b < 0xF0) {
+				// E0: no overlong 3 bytes sequence, ED: no surrogate
+				continuationBytes = 2;
+				if (b == 0xE0) {
+					minOfNextByte = 0xA0;
+				} else if (b == 0xED) {
+					maxOfNextByte = 0x9F;
+				}
+			} else if (b < 0xF5) {
+				// F0: no overlong 4 bytes sequence, F4: nothing above 10FFFF
+				continuationBytes = 3;
+				if (b == 0xF0) {
+					minOfNextByte = 0x90;
+				} else if (b == 0xF4) {
+					maxOfNextByte = 0x8F;
+				}
+			} else {
+				return error(i, from);
+			}
+			if (i + continuationBytes >= to) {
+				// The character ends in the next bytes: we remember what we expect
+				pendingBytes = continuationBytes;
+				min = minOfNextByte;
+				max = maxOfNextByte;
+				i++;
+				continue;
+			}
+			// The whole character is in the buffer: no need to update the state
+			int c = bytes[i + 1] & 0xFF;
+			if (c < minOfNextByte || c > maxOfNextByte) {
+				return error(i + 1, from);
+			}
+			for (int k = 2; k <= continuationBytes; k++) {
+				// The two high bits of a continuation byte are 10
+				if ((bytes[i + k] & 0xC0) != 0x80) {
+					return error(i + k, from);
+				}
+			}
+			i += continuationBytes + 1;
+		}
+		numberOfBytes += to - from;
+		return true;
+	}
+
+	private boolean error(int index, int from) {
+		errorOffset = numberOfBytes + index - from;
+		numberOfBytes += index - from;
+		return false;
+	}
+
+	/**
+	 * @return true if no invalid byte has been found and if the bytes do not end
+	 * in the middle of a character. The validator can still be updated.
+	 */
+	public boolean isValid() {
+		return errorOffset < 0 && pendingBytes == 0;
+	}
+
+	/**
+	 * @return true if all the bytes validated so far are ASCII (which means that
+	 * they can be decoded with US-ASCII, ISO-8859-1 or UTF-8 and give the same
+	 * characters)
+	 */
+	public boolean isAscii() {
+		return ascii && errorOffset < 0;
+	}
+
+	/**
+	 * @return the offset of the first invalid byte (counted from the first byte
+	 * given to the validator), or -1 if no invalid byte has been found
+	 */
+	public long getErrorOffset() {
+		return errorOffset;
+	}
+
+	/**
+	 * @return the number of bytes validated (up to the first invalid byte)
+	 */
+	public long getNumberOfBytes() {
+		return numberOfBytes;
+	}
+
+	/**
+	 * Prepares the validator for a new sequence of bytes
+	 */
+	public void reset() {
+		pendingBytes = 0;
+		min = MIN_CONTINUATION;
+		max = MAX_CONTINUATION;
+		ascii = true;
+		numberOfBytes = 0;
+		errorOffset = -1;
+	}
+
+}
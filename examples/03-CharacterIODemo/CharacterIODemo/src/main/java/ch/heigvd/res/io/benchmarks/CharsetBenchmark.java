@@ -0,0 +1,226 @@
+package ch.heigvd.res.io.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This JMH benchmark measures the cost of converting text to bytes (encoding)
+ * and bytes to text (decoding) with the four encodings used by
+ * CharacterIODemo, with the different APIs offered by Java:
+ * <ul>
+ * <li>String.getBytes and new String, which are the simplest;</li>
+ * <li>an OutputStreamWriter and an InputStreamReader, created for every
+ * message, like in CharacterIODemo.encodeAndDecode;</li>
+ * <li>a CharsetEncoder and a CharsetDecoder, created once and reused, with
+ * buffers allocated once (like in StreamingTranscoder).</li>
+ * </ul>
+ * The text is generated with a fixed seed. Its size is a number of chars, from
+ * 16 to 16 M, and its profile can be pure ASCII, French text with accents,
+ * Chinese characters, or a mix of all of them (with some emojis, which take two
+ * chars in Java). Characters that do not exist in an encoding (the accents in
+ * US-ASCII, the Chinese characters in ISO-8859-15) are replaced by '?', as
+ * String.getBytes does.
+ * <p>
+ * Besides the number of operations per second, the benchmark reports the
+ * number of megabytes of encoded bytes produced or consumed per second
+ * ("megabytes"). Run it with the GC profiler to see how much memory every API
+ * allocates per operation (gc.alloc.rate.norm):
+ *
+ *   java -jar target/benchmarks.jar CharsetBenchmark -prof gc -p profile=CJK -p size=65536
+ *
+ * The full matrix has 384 combinations: use -p to select a part of it.
+ *
+ * @author Olivier Liechti
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CharsetBenchmark {
+
+	public enum TextProfile {
+		ASCII, LATIN, CJK, MIXED
+	}
+
+	private static final String[] ASCII_WORDS = {"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "network",
+		"protocol", "stream", "buffer", "socket", "server", "client", "message"};
+
+	private static final String[] LATIN_WORDS = {"élève", "été", "garçon", "déjà", "où", "naïve", "cœur", "Noël", "château",
+		"français", "prêt", "même", "à", "côté", "fenêtre", "coût", "5€", "le", "la", "de"};
+
+	private static final int DECODE_BUFFER_SIZE = 8192;
+
+	@Param({"US-ASCII", "ISO-8859-15", "UTF-8", "UTF-16"})
+	public String encoding;
+
+	@Param({"16", "1024", "65536", "16777216"})
+	public int size;
+
+	@Param({"ASCII", "LATIN", "CJK", "MIXED"})
+	public TextProfile profile;
+
+	private Charset charset;
+	private String text;
+	private byte[] encodedText;
+
+	private ByteArrayOutputStream writerOutput;
+	private char[] readerBuffer;
+
+	private CharsetEncoder encoder;
+	private CharsetDecoder decoder;
+	private CharBuffer textChars;
+	private ByteBuffer encodedBytes;
+	private ByteBuffer encoderOutput;
+	private CharBuffer decoderOutput;
+
+	@Setup(Level.Trial)
+	public void prepare() {
+		charset = Charset.forName(encoding);
+		text = generateText(profile, size, new Random(42));
+		encodedText = text.getBytes(charset);
+
+		writerOutput = new ByteArrayOutputStream(encodedText.length);
+		readerBuffer = new char[DECODE_BUFFER_SIZE];
+
+		encoder = charset.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		decoder = charset.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		// The encoders and decoders are much faster with buffers backed by arrays
+		textChars = CharBuffer.wrap(text.toCharArray());
+		encodedBytes = ByteBuffer.wrap(encodedText);
+		encoderOutput = ByteBuffer.allocate((int) Math.ceil(encoder.maxBytesPerChar() * size));
+		decoderOutput = CharBuffer.allocate((int) Math.ceil(decoder.maxCharsPerByte() * encodedText.length));
+	}
+
+	@Benchmark
+	public byte[] encodeWithGetBytes(ThroughputCounters counters) {
+		counters.addBytes(encodedText.length);
+		return text.getBytes(charset);
+	}
+
+	@Benchmark
+	public String decodeWithNewString(ThroughputCounters counters) {
+		counters.addBytes(encodedText.length);
+		return new String(encodedText, charset);
+	}
+
+	@Benchmark
+	public int encodeWithWriter(ThroughputCounters counters) throws IOException {
+		writerOutput.reset();
+		Writer writer = new OutputStreamWriter(writerOutput, charset);
+		writer.write(text);
+		writer.flush();
+		counters.addBytes(writerOutput.size());
+		return writerOutput.size();
+	}
+
+	@Benchmark
+	public long decodeWithReader(ThroughputCounters counters) throws IOException {
+		Reader reader = new InputStreamReader(new ByteArrayInputStream(encodedText), charset);
+		long numberOfChars = 0;
+		int n;
+		while ( (n = reader.read(readerBuffer)) != -1 ) {
+			numberOfChars += n;
+		}
+		counters.addBytes(encodedText.length);
+		return numberOfChars;
+	}
+
+	@Benchmark
+	public int encodeWithEncoder(ThroughputCounters counters) {
+		encoder.reset();
+		textChars.clear();
+		encoderOutput.clear();
+		encoder.encode(textChars, encoderOutput, true);
+		encoder.flush(encoderOutput);
+		counters.addBytes(encoderOutput.position());
+		return encoderOutput.position();
+	}
+
+	@Benchmark
+	public int decodeWithDecoder(ThroughputCounters counters) {
+		decoder.reset();
+		encodedBytes.clear();
+		decoderOutput.clear();
+		decoder.decode(encodedBytes, decoderOutput, true);
+		decoder.flush(decoderOutput);
+		counters.addBytes(encodedText.length);
+		return decoderOutput.position();
+	}
+
+	/**
+	 * Generates a text of exactly size chars, made of words separated by spaces
+	 */
+	static String generateText(TextProfile profile, int size, Random random) {
+		StringBuilder sb = new StringBuilder(size + 16);
+		while (sb.length() < size) {
+			TextProfile wordProfile = profile;
+			if (profile == TextProfile.MIXED) {
+				int p = random.nextInt(20);
+				if (p < 12) {
+					wordProfile = TextProfile.ASCII;
+				} else if (p < 17) {
+					wordProfile = TextProfile.LATIN;
+				} else if (p < 19) {
+					wordProfile = TextProfile.CJK;
+				} else {
+					// An emoji, outside of the Basic Multilingual Plane (a surrogate pair in Java)
+					sb.appendCodePoint(0x1F600 + random.nextInt(64));
+					sb.append(' ');
+					continue;
+				}
+			}
+			switch (wordProfile) {
+				case ASCII:
+					sb.append(ASCII_WORDS[random.nextInt(ASCII_WORDS.length)]);
+					break;
+				case LATIN:
+					sb.append(LATIN_WORDS[random.nextInt(LATIN_WORDS.length)]);
+					break;
+				default:
+					int length = 1 + random.nextInt(4);
+					for (int i = 0; i < length; i++) {
+						sb.append((char) (0x4E00 + random.nextInt(0x9FA5 - 0x4E00)));
+					}
+			}
+			sb.append(' ');
+		}
+		sb.setLength(size);
+		// Do not cut an emoji in the middle
+		if (Character.isHighSurrogate(sb.charAt(size - 1))) {
+			sb.setCharAt(size - 1, ' ');
+		}
+		return sb.toString();
+	}
+
+}